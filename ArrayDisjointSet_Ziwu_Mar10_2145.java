@@ -1,7 +1,11 @@
 package datastructures.concrete;
 
-import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import java.util.Arrays;
+import java.util.Collection;
+
 import datastructures.interfaces.IDisjointSet;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
 
 /**
  * See IDisjointSet for more details.
@@ -14,37 +18,86 @@ public class ArrayDisjointSet<T> implements IDisjointSet<T> {
     // However, feel free to add more methods and private helper methods.
     // You will probably need to add one or two more fields in order to
     // successfully implement this class.
-    private ChainedHashDictionary<Integer, Integer> family;
+    //
+    // A root's slot in pointers holds -(rank + 1), where rank bounds the height of
+    // its tree; every other slot holds the index of its parent. family gives each
+    // item its index in pointers.
+    private IndexMap<T> family;
     private int size;
 
     public ArrayDisjointSet() {
-        pointers = new int[2];
-        family = new ChainedHashDictionary<>();
+        this(2);
+    }
+
+    /**
+     * Constructs an empty disjoint set with room for the given number of items
+     * before any of its storage needs to grow.
+     */
+    public ArrayDisjointSet(int capacity) {
+        pointers = new int[Math.max(capacity, 2)];
+        family = new IndexMap<>(pointers.length);
         size = 0;
     }
 
     @Override
     public void makeSet(T item) {
-        int hash = item.toString().hashCode();
-        if (family.containsKey(hash)) {
+        if (family.indexOf(item) != -1) {
             throw new IllegalArgumentException();
         }
-        family.put(hash, size);
         if (size == pointers.length) {
-            pointers = expandArrays(pointers);
+            ensureCapacity(2 * size);
         }
-        pointers[size] = -(size+1);
+        family.add(item);
+        pointers[size] = -1;
         size++;
     }
 
+    /**
+     * Creates a new singleton set for each of the given items. When the items come
+     * in an IList, ISet or java.util.Collection, all storage is grown once up front.
+     *
+     * @throws IllegalArgumentException  if any item is already present, or appears
+     *                                   twice; the items before it stay added
+     */
+    public void makeSets(Iterable<T> items) {
+        if (items instanceof IList) {
+            ensureCapacity(size + ((IList<T>) items).size());
+        } else if (items instanceof ISet) {
+            ensureCapacity(size + ((ISet<T>) items).size());
+        } else if (items instanceof Collection) {
+            ensureCapacity(size + ((Collection<T>) items).size());
+        }
+        for (T item : items) {
+            makeSet(item);
+        }
+    }
+
     @Override
     public int findSet(T item) {
-        int hash = item.toString().hashCode();
-        if (!family.containsKey(hash)) {
+        int index = family.indexOf(item);
+        if (index == -1) {
             throw new IllegalArgumentException();
         }
-        int root = findRoot(family.get(hash));
-        return root;
+        return findRoot(index);
+    }
+
+    /**
+     * Writes the representative of each given item's set into output, in order,
+     * and returns the number of items written.
+     *
+     * @throws IllegalArgumentException  if any item is not present, or output is too
+     *                                   short to hold them all
+     */
+    public int findSets(Iterable<T> items, int[] output) {
+        int count = 0;
+        for (T item : items) {
+            if (count == output.length) {
+                throw new IllegalArgumentException();
+            }
+            output[count] = findSet(item);
+            count++;
+        }
+        return count;
     }
 
     @Override
@@ -54,23 +107,165 @@ public class ArrayDisjointSet<T> implements IDisjointSet<T> {
         if (representative1 == representative2) {
             throw new IllegalArgumentException();
         }
-        pointers[representative2] = representative1;
+        link(representative1, representative2);
     }
-    
-    private int[] expandArrays(int[] array) {
-        int length = array.length;
-        int[] newArray = new int[2 * length];
-        for (int i = 0; i < length; i++) {
-            newArray[i] = array[i];
+
+    /**
+     * Merges the sets of both items in every given pair. Unlike union, a pair whose
+     * items are already in the same set is skipped rather than rejected. Returns the
+     * number of merges made.
+     *
+     * @throws IllegalArgumentException  if any item is not present; the pairs
+     *                                   before it stay merged
+     */
+    public int unionAll(Iterable<KVPair<T, T>> pairs) {
+        int merges = 0;
+        for (KVPair<T, T> pair : pairs) {
+            int representative1 = findSet(pair.getKey());
+            int representative2 = findSet(pair.getValue());
+            if (representative1 != representative2) {
+                link(representative1, representative2);
+                merges++;
+            }
+        }
+        return merges;
+    }
+
+    // Union by rank: hang the shallower tree under the deeper one, so trees stay
+    // logarithmically shallow whatever order the unions come in.
+    private void link(int root1, int root2) {
+        int rank1 = -pointers[root1] - 1;
+        int rank2 = -pointers[root2] - 1;
+        if (rank1 < rank2) {
+            pointers[root1] = root2;
+        } else {
+            if (rank1 == rank2) {
+                pointers[root1]--;
+            }
+            pointers[root2] = root1;
         }
-        return newArray;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > pointers.length) {
+            pointers = Arrays.copyOf(pointers, capacity);
+        }
+        family.ensureCapacity(capacity);
     }
     
+    // Walks up to the root, then points every index on the way directly at it
+    // (full path compression). Iterative, so long chains can't overflow the stack.
     private int findRoot(int index) {
-        int pointer = pointers[index];
-        if (pointer < 0) {
-            return index;
+        int root = index;
+        while (pointers[root] >= 0) {
+            root = pointers[root];
+        }
+        while (index != root) {
+            int parent = pointers[index];
+            pointers[index] = root;
+            index = parent;
+        }
+        return root;
+    }
+
+    /**
+     * Maps each item to the index it was added at, by equals and hashCode. The table
+     * is open-addressed with linear probing and holds index + 1 in each used slot
+     * (0 marks an empty slot), so lookups neither box nor allocate. Items and their
+     * hashes are kept by index, so growing the table never rehashes an item.
+     */
+    private static class IndexMap<T> {
+        private T[] items;
+        private int[] hashes;
+        private int[] table;
+        private int size;
+
+        public IndexMap(int capacity) {
+            items = makeArrayOfT(capacity);
+            hashes = new int[capacity];
+            table = new int[tableSizeFor(capacity)];
+            size = 0;
+        }
+
+        /**
+         * Makes room for the given number of items without further growth.
+         */
+        public void ensureCapacity(int capacity) {
+            if (capacity > items.length) {
+                items = Arrays.copyOf(items, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+            }
+            if (tableSizeFor(capacity) > table.length) {
+                rehash(tableSizeFor(capacity));
+            }
+        }
+
+        /**
+         * Returns the index the item was added at, or -1 if it was never added.
+         */
+        public int indexOf(T item) {
+            int hash = spread(item.hashCode());
+            int mask = table.length - 1;
+            for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                int index = table[slot] - 1;
+                if (hashes[index] == hash && items[index].equals(item)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds an item that is not yet present, giving it the next index.
+         */
+        public void add(T item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, 2 * size);
+                hashes = Arrays.copyOf(hashes, 2 * size);
+            }
+            if (2 * (size + 1) > table.length) {
+                rehash(2 * table.length);
+            }
+            items[size] = item;
+            hashes[size] = spread(item.hashCode());
+            insert(size);
+            size++;
+        }
+
+        // The smallest power of two that keeps the table at most half full.
+        private static int tableSizeFor(int capacity) {
+            int tableSize = 16;
+            while (tableSize < 2 * capacity) {
+                tableSize *= 2;
+            }
+            return tableSize;
+        }
+
+        private void rehash(int capacity) {
+            table = new int[capacity];
+            for (int index = 0; index < size; index++) {
+                insert(index);
+            }
+        }
+
+        private void insert(int index) {
+            int mask = table.length - 1;
+            int slot = hashes[index] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+
+        // Mixes the high bits into the low ones, since the table only looks at the
+        // low bits and many hashCodes differ mostly in their high bits.
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T[] makeArrayOfT(int size) {
+            return (T[]) (new Object[size]);
         }
-        return findRoot(pointer);
     }
 }
@@ -0,0 +1,171 @@
+package datastructures.concrete;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import datastructures.interfaces.IDisjointSet;
+
+/**
+ * A thread-safe disjoint set over the dense integer ids 0 through capacity - 1,
+ * for connectivity and spanning-tree work split across many threads. It uses no
+ * locks: every change to the parent array is a single compare-and-set.
+ *
+ * Two roots are always linked lower id under higher id, so concurrent unions can
+ * never form a cycle. A union that loses a race to another thread finds the new
+ * roots and tries again. Finds use path halving and never block.
+ *
+ * While other threads are making unions, findSet can return a representative that
+ * is out of date by the time the caller sees it. Use isSameSet or unionIfDisjoint
+ * for answers that are accurate at some instant during the call.
+ *
+ * See IDisjointSet for more details.
+ */
+public class ConcurrentDisjointSet implements IDisjointSet<Integer> {
+    // Marks an id that has not been made into a set yet.
+    private static final int ABSENT = -1;
+
+    // A root's slot holds its own id; every other present id's slot holds its parent.
+    private final AtomicIntegerArray parents;
+
+    /**
+     * Constructs an empty disjoint set that can hold the ids 0 through capacity - 1.
+     */
+    public ConcurrentDisjointSet(int capacity) {
+        parents = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            parents.set(i, ABSENT);
+        }
+    }
+
+    /**
+     * Returns the number of distinct ids this disjoint set can hold.
+     */
+    public int capacity() {
+        return parents.length();
+    }
+
+    /**
+     * Creates a new set containing just the given id.
+     *
+     * @throws IllegalArgumentException  if the id is out of range or already in a set
+     */
+    public void makeSet(int id) {
+        checkRange(id);
+        if (!parents.compareAndSet(id, ABSENT, id)) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Returns the current representative of the set containing the given id.
+     *
+     * @throws IllegalArgumentException  if the id is not in any set
+     */
+    public int findSet(int id) {
+        checkPresent(id);
+        return findRoot(id);
+    }
+
+    /**
+     * Returns true if the two ids were in the same set at some instant during this call.
+     *
+     * @throws IllegalArgumentException  if either id is not in a set
+     */
+    public boolean isSameSet(int id1, int id2) {
+        checkPresent(id1);
+        checkPresent(id2);
+        while (true) {
+            int root1 = findRoot(id1);
+            int root2 = findRoot(id2);
+            if (root1 == root2) {
+                return true;
+            }
+            // root1 was still a root after root2 was found, so the sets were distinct then.
+            if (parents.get(root1) == root1) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Merges the sets containing the two ids.
+     *
+     * @throws IllegalArgumentException  if either id is not in a set, or both are
+     *                                   already in the same set
+     */
+    public void union(int id1, int id2) {
+        if (!unionIfDisjoint(id1, id2)) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Merges the sets containing the two ids if they are different, and returns
+     * whether this call did the merge. When several threads race to join the same
+     * two sets, exactly one of them gets true.
+     *
+     * @throws IllegalArgumentException  if either id is not in a set
+     */
+    public boolean unionIfDisjoint(int id1, int id2) {
+        checkPresent(id1);
+        checkPresent(id2);
+        while (true) {
+            int root1 = findRoot(id1);
+            int root2 = findRoot(id2);
+            if (root1 == root2) {
+                return false;
+            }
+            int lower = Math.min(root1, root2);
+            int higher = Math.max(root1, root2);
+            if (parents.compareAndSet(lower, lower, higher)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void makeSet(Integer item) {
+        makeSet(item.intValue());
+    }
+
+    @Override
+    public int findSet(Integer item) {
+        return findSet(item.intValue());
+    }
+
+    @Override
+    public void union(Integer item1, Integer item2) {
+        union(item1.intValue(), item2.intValue());
+    }
+
+    private void checkRange(int id) {
+        if (id < 0 || id >= parents.length()) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private void checkPresent(int id) {
+        checkRange(id);
+        if (parents.get(id) == ABSENT) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    // Path halving: each step points the current id at its grandparent, then moves
+    // there. A failed compare-and-set only means another thread already shortened
+    // the path, so it is ignored.
+    private int findRoot(int id) {
+        int current = id;
+        while (true) {
+            int parent = parents.get(current);
+            if (parent == current) {
+                return current;
+            }
+            int grandparent = parents.get(parent);
+            if (grandparent == parent) {
+                return parent;
+            }
+            parents.compareAndSet(current, parent, grandparent);
+            current = grandparent;
+        }
+    }
+}
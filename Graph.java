@@ -1,15 +1,39 @@
 package misc.graphs;
 
 
-import datastructures.concrete.ArrayDisjointSet;
-import datastructures.concrete.ArrayHeap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleBiFunction;
+
 import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.ConcurrentDisjointSet;
 import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.IndexedArrayHeap;
+import datastructures.concrete.IntDisjointSet;
+import datastructures.concrete.KVPair;
 import datastructures.concrete.dictionaries.ChainedHashDictionary;
-import datastructures.interfaces.IDisjointSet;
 import datastructures.interfaces.IList;
 import datastructures.interfaces.ISet;
-import misc.Searcher;
 import misc.exceptions.NoPathExistsException;
 
 
@@ -59,34 +83,282 @@ public class Graph<V, E extends Edge<V> & Comparable<E>> {
     // Working with generics is really not the focus of this class, so if you
     // get stuck, let us know we'll try and help you get unstuck as best as we can.
 
+    // Dense vertex ids: vertexTable maps each vertex to its id and back, and edge i
+    // is edgeTable[i], running from vertex edgeSrc.get(i) to edgeDst.get(i) with
+    // weight edgeWeight.get(i). The searches and MST algorithms read only these
+    // primitive buffers, and touch edgeTable just to build their results. Only the
+    // first edgeCount slots are used; addEdge grows the buffers geometrically.
+    // edgeTable is null while no edge has come with its own object, and otherwise
+    // as long as the edge buffers' capacity.
+    //
+    // The edge and adjacency buffers wrap heap arrays, except in a graph read from
+    // a snapshot, where they are read-only views of the file's mapping until
+    // addEdge copies the edge buffers and the adjacency index is rebuilt.
+    private VertexTable<V> vertexTable;
+    private E[] edgeTable;
+    private IntBuffer edgeSrc;
+    private IntBuffer edgeDst;
+    private DoubleBuffer edgeWeight;
+    private int edgeCount;
+
+    // Makes the edge objects of edges that were given without one, such as those
+    // of a snapshot, the first time a result needs them; null if every edge came
+    // with its object. The objects made go in createdEdges, which is null until the
+    // first is needed. Its slots are claimed with compareAndSet, so concurrent
+    // queries all get the same object for an edge.
+    private EdgeFactory<V, E> edgeFactory;
+    private volatile AtomicReferenceArray<E> createdEdges;
+
+    // Compressed-sparse-row adjacency index, built in the constructor and rebuilt
+    // by ensureAdjacency after edges are added. The edges incident to vertex i are
+    // edgeIds.get(offsets.get(i)) up to (but excluding) edgeIds.get(offsets.get(i + 1)),
+    // and adjacent.get(k) is the vertex on the other end of edgeIds.get(k). Every
+    // undirected edge is listed under both of its endpoints.
+    private IntBuffer offsets;
+    private IntBuffer edgeIds;
+    private IntBuffer adjacent;
+
+    // The number of edges the adjacency index covers. It is written after the index
+    // buffers, so a thread that reads it equal to edgeCount sees a complete index
+    // without taking the graph's lock.
+    private volatile int indexedEdges;
+
+    // Optional cache of complete shortest-path trees keyed by source id; null
+    // until enableShortestPathCache is called.
+    private ShortestPathCache<V, E> pathCache;
+
+    // Contraction hierarchy for point-to-point queries; null until
+    // prepareContractionHierarchy is called.
+    private ContractionHierarchy hierarchy;
+
+    // Union-find over vertex ids with every edge merged in, and the component
+    // labels read off it; both null until the first connectivity query. The
+    // union-find's paths are compressed only under the graph's lock, so queries can
+    // read it from any number of threads. connectivityDirty is set when addEdge
+    // merges two of its sets, and cleared once every path is flattened again.
+    private volatile IntDisjointSet connectivity;
+    private volatile boolean connectivityDirty;
+    private Components<V, E> components;
+
+    // The minimum spanning forest kept up to date as edges are added; null until
+    // maintainMinimumSpanningForest is called.
+    private volatile DynamicForest dynamicForest;
+
+    // Receives the statistics of every shortest-path and spanning-tree call; null
+    // when instrumentation is off, in which case no statistics are even gathered.
+    private SearchListener searchListener;
+
     /**
      * Constructs a new graph based on the given vertices and edges.
      *
-     * @throws IllegalArgumentException  if any of the edges have a negative weight
+     * @throws IllegalArgumentException  if any of the edges have a negative or NaN
+     *                                   weight
      * @throws IllegalArgumentException  if one of the edges connects to a vertex not
      *                                   present in the 'vertices' list
      */
-    private ChainedHashDictionary<Integer, ChainedHashSet<V>> AList;
-    private IList<V> vertices;
-    private IList<E> edges;
-    
     public Graph(IList<V> vertices, IList<E> edges) {
-        
-        for (E edge: edges) {
-            if(edge.getWeight() < 0 || !vertices.contains(edge.getVertex1())
-                    || !vertices.contains(edge.getVertex2())) {
-                throw new IllegalArgumentException();
+        this(fromLists(vertices, edges));
+    }
+
+    // A builder is used only once, so its edge arrays are taken over as they are,
+    // spare capacity and all, since only the first edgeCount slots are read. Its
+    // vertex array is trimmed because its length is the number of vertices.
+    private Graph(Builder<V, E> builder) {
+        int numVertices = builder.numVertices;
+        this.vertexTable = new InternedVertices<>(builder.vertexIds,
+                builder.vertexTable.length == numVertices
+                        ? builder.vertexTable : Arrays.copyOf(builder.vertexTable, numVertices));
+        this.edgeTable = builder.edgeTable;
+        this.edgeSrc = IntBuffer.wrap(builder.edgeSrc);
+        this.edgeDst = IntBuffer.wrap(builder.edgeDst);
+        this.edgeWeight = DoubleBuffer.wrap(builder.edgeWeight);
+        this.edgeCount = builder.numEdges;
+        this.edgeFactory = builder.edgeFactory;
+        buildAdjacency();
+    }
+
+    private Graph(VertexTable<V> vertexTable, IntBuffer edgeSrc, IntBuffer edgeDst,
+            DoubleBuffer edgeWeight, IntBuffer offsets, IntBuffer edgeIds, IntBuffer adjacent,
+            EdgeFactory<V, E> edgeFactory) {
+        this.vertexTable = vertexTable;
+        this.edgeSrc = edgeSrc;
+        this.edgeDst = edgeDst;
+        this.edgeWeight = edgeWeight;
+        this.edgeCount = edgeSrc.capacity();
+        this.offsets = offsets;
+        this.edgeIds = edgeIds;
+        this.adjacent = adjacent;
+        this.indexedEdges = edgeCount;
+        this.edgeFactory = edgeFactory;
+    }
+
+    private static <V, E extends Edge<V> & Comparable<E>> Builder<V, E> fromLists(
+            IList<V> vertices, IList<E> edges) {
+        Builder<V, E> builder = builder(vertices.size(), edges.size());
+        for (V vertex : vertices) {
+            builder.addVertex(vertex);
+        }
+        for (E edge : edges) {
+            builder.addEdge(edge);
+        }
+        return builder;
+    }
+
+    // Counts the degree of every vertex, turns the counts into offsets, and then
+    // drops each edge into the slots of both of its endpoints. The new index is
+    // built in locals and published by the write to indexedEdges.
+    private void buildAdjacency() {
+        int numIds = vertexTable.size();
+        int numEdges = edgeCount;
+        int[] offsets = new int[numIds + 1];
+        for (int edgeId = 0; edgeId < numEdges; edgeId++) {
+            offsets[edgeSrc.get(edgeId) + 1]++;
+            offsets[edgeDst.get(edgeId) + 1]++;
+        }
+        for (int i = 0; i < numIds; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] edgeIds = new int[2 * numEdges];
+        int[] adjacent = new int[2 * numEdges];
+        int[] next = Arrays.copyOf(offsets, numIds);
+        for (int edgeId = 0; edgeId < numEdges; edgeId++) {
+            int vertex1 = edgeSrc.get(edgeId);
+            int vertex2 = edgeDst.get(edgeId);
+            edgeIds[next[vertex1]] = edgeId;
+            adjacent[next[vertex1]++] = vertex2;
+            edgeIds[next[vertex2]] = edgeId;
+            adjacent[next[vertex2]++] = vertex1;
+        }
+        this.offsets = IntBuffer.wrap(offsets);
+        this.edgeIds = IntBuffer.wrap(edgeIds);
+        this.adjacent = IntBuffer.wrap(adjacent);
+        indexedEdges = numEdges;
+    }
+
+    // Rebuilds the adjacency index if edges have been added since it was last
+    // built. Every query that walks the index calls this first. Only the first
+    // thread to find the index stale rebuilds it; the others wait for it on the
+    // graph's lock, and once it is current no lock is taken at all.
+    private void ensureAdjacency() {
+        if (indexedEdges != edgeCount) {
+            synchronized (this) {
+                if (indexedEdges != edgeCount) {
+                    buildAdjacency();
+                }
             }
         }
-        this.vertices = vertices;
-        this.edges = edges;
-        this.AList = new ChainedHashDictionary<>();
-        for(V vertex : vertices) {
-            AList.put(vertices.indexOf(vertex), new ChainedHashSet<V>() );
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T[] makeArrayOfT(int size) {
+        return (T[]) (new Object[size]);
+    }
+
+    // E erases to Edge rather than Object, so its arrays must be made as Edge[].
+    @SuppressWarnings("unchecked")
+    private static <V, E extends Edge<V>> E[] makeArrayOfE(int size) {
+        return (E[]) (new Edge<?>[size]);
+    }
+
+    // Returns a heap array of the given length starting with the first count
+    // entries of the buffer. The copy reads through a duplicate, so the buffer's
+    // own position is never touched and other threads may read it meanwhile.
+    private static int[] copyOf(IntBuffer buffer, int count, int length) {
+        int[] copy = new int[length];
+        buffer.duplicate().get(copy, 0, count);
+        return copy;
+    }
+
+    private static double[] copyOf(DoubleBuffer buffer, int count, int length) {
+        double[] copy = new double[length];
+        buffer.duplicate().get(copy, 0, count);
+        return copy;
+    }
+
+    /**
+     * Returns a builder that assembles a graph one vertex and edge at a time.
+     */
+    public static <V, E extends Edge<V> & Comparable<E>> Builder<V, E> builder() {
+        return builder(16, 16);
+    }
+
+    /**
+     * Returns a builder presized for roughly the given number of vertices and edges.
+     */
+    public static <V, E extends Edge<V> & Comparable<E>> Builder<V, E> builder(
+            int expectedVertices, int expectedEdges) {
+        return new Builder<>(expectedVertices, expectedEdges);
+    }
+
+    /**
+     * Builds a graph from a text file of edges, one per line, each written as a
+     * source vertex, a destination vertex and a weight separated by spaces, tabs or
+     * commas. Blank lines and lines starting with '#' are skipped. Each vertex token
+     * is turned into a vertex by the given parser, and edge objects are made by the
+     * factory only when a result needs them.
+     *
+     * The file is read in a single pass through a fixed-size buffer, straight into
+     * the graph's primitive arrays, so no list of edges is ever held in memory.
+     *
+     * @throws IOException               if the file cannot be read, or a line does not
+     *                                   hold exactly three fields or a valid weight
+     * @throws IllegalArgumentException  if a weight is negative or NaN
+     */
+    public static <V, E extends Edge<V> & Comparable<E>> Graph<V, E> readEdgeList(
+            Path file, Function<String, ? extends V> vertexParser, EdgeFactory<V, E> edgeFactory)
+            throws IOException {
+        Builder<V, E> builder = new Builder<V, E>(16, 16).edgeFactory(edgeFactory);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            EdgeListParser parser = new EdgeListParser();
+            ByteBuffer buffer = ByteBuffer.allocate(EdgeListParser.CHUNK_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    if (parser.accept(buffer.get())) {
+                        parser.addTo(builder, vertexParser);
+                    }
+                }
+                buffer.clear();
+            }
+            if (parser.accept((byte) '\n')) {
+                parser.addTo(builder, vertexParser);
+            }
         }
-        for(E edge:edges) {
-            AList.get(vertices.indexOf(edge.getVertex1())).add(edge.getVertex2());
+        return builder.build();
+    }
+
+    /**
+     * Builds a graph on Integer vertices from a stream of (source, destination,
+     * weight) triples, without boxing any weight or creating any edge object until
+     * a result needs it. Vertices are added the first time they appear.
+     *
+     * @throws IllegalArgumentException  if a weight is negative or NaN
+     */
+    public static <E extends Edge<Integer> & Comparable<E>> Graph<Integer, E> fromTriples(
+            EdgeTriples triples, EdgeFactory<Integer, E> edgeFactory) {
+        Builder<Integer, E> builder = new Builder<Integer, E>(16, 16).edgeFactory(edgeFactory);
+        while (triples.advance()) {
+            builder.addEdge(triples.source(), triples.destination(), triples.weight());
         }
+        return builder.build();
+    }
+
+    /**
+     * A cursor over edges given as primitive (source, destination, weight) triples.
+     * Each call to advance moves to the next triple, whose fields are then read with
+     * the other methods.
+     */
+    public interface EdgeTriples {
+        /**
+         * Moves to the next triple, returning false once there are no more.
+         */
+        boolean advance();
+
+        int source();
+
+        int destination();
+
+        double weight();
     }
 
     /**
@@ -112,42 +384,580 @@ public class Graph<V, E extends Edge<V> & Comparable<E>> {
     /**
      * Returns the number of vertices contained within this graph.
      */
-    public int numVertices() {        
-        return this.vertices.size();
-                
+    public int numVertices() {
+        return vertexTable.size();
     }
 
     /**
      * Returns the number of edges contained within this graph.
      */
     public int numEdges() {
-        return this.edges.size();
+        return edgeCount;
+    }
+
+    /**
+     * Adds the given edge to this graph.
+     *
+     * The edge arrays grow geometrically, so adding an edge takes amortized constant
+     * time, plus the logarithmic update of any maintained minimum spanning forest.
+     * The first edge added to a graph read from a snapshot copies the edges out of
+     * the file's mapping into heap arrays, which takes time linear in their number.
+     * The connectivity snapshot is updated in place, and the shortest-path cache is
+     * cleared and any contraction hierarchy dropped, since the new edge may shorten
+     * paths. The adjacency index is rebuilt once, by the next query that walks it,
+     * however many edges were added before it.
+     *
+     * A graph must not be modified while any other thread is using it. Once it is
+     * no longer being modified, any number of threads may query it at once.
+     *
+     * @throws IllegalArgumentException  if the edge has a negative or NaN weight
+     * @throws IllegalArgumentException  if the edge connects to a vertex not in this graph
+     */
+    public synchronized void addEdge(E edge) {
+        double weight = edge.getWeight();
+        int src = vertexTable.find(edge.getVertex1());
+        int dst = vertexTable.find(edge.getVertex2());
+        if (!(weight >= 0) || src < 0 || dst < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (edgeCount == edgeSrc.capacity() || edgeSrc.isReadOnly()) {
+            int capacity = Math.max(2 * edgeCount, 16);
+            if (edgeTable != null) {
+                edgeTable = Arrays.copyOf(edgeTable, capacity);
+            }
+            edgeSrc = IntBuffer.wrap(copyOf(edgeSrc, edgeCount, capacity));
+            edgeDst = IntBuffer.wrap(copyOf(edgeDst, edgeCount, capacity));
+            edgeWeight = DoubleBuffer.wrap(copyOf(edgeWeight, edgeCount, capacity));
+        }
+        if (edgeTable == null) {
+            edgeTable = makeArrayOfE(edgeSrc.capacity());
+        }
+        int edgeId = edgeCount;
+        edgeTable[edgeId] = edge;
+        edgeSrc.put(edgeId, src);
+        edgeDst.put(edgeId, dst);
+        edgeWeight.put(edgeId, weight);
+        edgeCount++;
+
+        if (connectivity != null && connectivity.unionIfDisjoint(src, dst)) {
+            connectivityDirty = true;
+        }
+        components = null;
+        if (pathCache != null) {
+            pathCache.clear();
+        }
+        hierarchy = null;
+        if (dynamicForest != null) {
+            dynamicForest.insert(edgeId, src, dst, weight);
+        }
+    }
+
+    /**
+     * Starts keeping a minimum spanning forest of this graph up to date as edges are
+     * added, and returns it. From then on, findMinimumSpanningTree() and
+     * findMinimumSpanningForest() return the maintained forest without recomputing it.
+     *
+     * The forest is held in a link-cut tree. Each added edge that joins two trees is
+     * linked in. An edge that closes a cycle replaces the heaviest edge on the tree
+     * path between its endpoints if it is lighter (the cycle property). Either way,
+     * an update takes amortized logarithmic time, and reading the forest back takes
+     * time proportional to its size.
+     */
+    public synchronized ISet<E> maintainMinimumSpanningForest() {
+        if (dynamicForest == null) {
+            DynamicForest forest = new DynamicForest(vertexTable.size());
+            IntList seed = kruskal(Math.max(vertexTable.size() - 1, 0), null);
+            for (int i = 0; i < seed.size; i++) {
+                int e = seed.ids[i];
+                forest.insert(e, edgeSrc.get(e), edgeDst.get(e), edgeWeight.get(e));
+            }
+            dynamicForest = forest;
+        }
+        return maintainedForest();
+    }
+
+    private ISet<E> maintainedForest() {
+        return toEdgeSet(dynamicForest.edgeIds());
+    }
+
+    // Returns the maintained forest for findMinimumSpanningTree and
+    // findMinimumSpanningForest, reporting the call to the listener as
+    // DYNAMIC_FOREST like any other spanning-tree call.
+    private ISet<E> readMaintainedForest() {
+        SearchListener listener = searchListener;
+        SearchStats stats = listener == null ? null : new SearchStats("DYNAMIC_FOREST");
+        try {
+            return maintainedForest();
+        } finally {
+            publish(listener, stats);
+        }
+    }
+
+    /**
+     * Writes this graph to the given file in a compact binary snapshot format: a
+     * header, the edge weights, the adjacency index and edge endpoints as primitive
+     * arrays, then the vertex keys encoded by the given codec and a hash table over
+     * them. Edges are stored only as their endpoints and weight, so any other state
+     * they carry is not saved. Overwrites the file if it exists.
+     *
+     * @throws IOException  if the file cannot be written, or the graph has more
+     *                      vertices or edges than a snapshot can hold
+     */
+    public void writeSnapshot(Path file, VertexCodec<V> codec) throws IOException {
+        ensureAdjacency();
+        int numVertices = vertexTable.size();
+        if (numVertices > Snapshot.MAX_VERTICES || edgeCount > Snapshot.MAX_EDGES) {
+            throw new IOException("graph is too large for a snapshot");
+        }
+        byte[][] keys = new byte[numVertices][];
+        int[] keyOffsets = new int[numVertices + 1];
+        int[] slots = new int[Snapshot.tableSize(numVertices)];
+        int mask = slots.length - 1;
+        for (int id = 0; id < numVertices; id++) {
+            keys[id] = codec.encode(vertexTable.get(id));
+            keyOffsets[id + 1] = Math.addExact(keyOffsets[id], keys[id].length);
+            int slot = Snapshot.hash(keys[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Snapshot.Writer out = new Snapshot.Writer(channel);
+            out.putInt(Snapshot.MAGIC);
+            out.putInt(Snapshot.VERSION);
+            out.putInt(numVertices);
+            out.putInt(edgeCount);
+            out.putDoubles(edgeWeight, edgeCount);
+            out.putInts(offsets, numVertices + 1);
+            out.putInts(edgeIds, 2 * edgeCount);
+            out.putInts(adjacent, 2 * edgeCount);
+            out.putInts(edgeSrc, edgeCount);
+            out.putInts(edgeDst, edgeCount);
+            out.putInts(IntBuffer.wrap(keyOffsets), keyOffsets.length);
+            out.putInts(IntBuffer.wrap(slots), slots.length);
+            for (byte[] key : keys) {
+                out.putBytes(key);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads a graph written by writeSnapshot by mapping the file into memory. The
+     * adjacency index, edge endpoints and edge weights are served straight from
+     * read-only views of the mapping, so opening a snapshot takes constant time
+     * however large it is, pages are read in only as queries touch them, and
+     * processes that open the same file share its pages in the operating system's
+     * page cache. Nothing is decoded up front: a vertex passed to a query is found
+     * by hashing its encoded key into the table stored in the file, and a vertex or
+     * edge object is made the first time a result needs it, exactly once even if
+     * several threads need it at the same time.
+     *
+     * Queries on a mapped graph read through buffer views instead of arrays. The
+     * first edge added copies the edges into heap arrays; see addEdge. The mapping
+     * stays valid after this returns, until the graph is garbage collected, and the
+     * file must not be changed while it is in use. Each section of the file must be
+     * under 2 GB, which bounds a snapshot to about 268 million edges and 134 million
+     * vertices.
+     *
+     * Only the header and the sizes of the sections are checked here, against the
+     * size of the file, since anything more would read the whole file. The ids and
+     * offsets inside are trusted, so a snapshot that may have been corrupted should
+     * be passed to verifySnapshot first; otherwise a corrupt one fails later, inside
+     * whichever query reads the damaged part.
+     *
+     * @throws IOException  if the file cannot be read, is not a graph snapshot, or
+     *                      its sizes do not match its header
+     */
+    public static <V, E extends Edge<V> & Comparable<E>> Graph<V, E> readSnapshot(
+            Path file, VertexCodec<V> codec, EdgeFactory<V, E> edgeFactory) throws IOException {
+        Snapshot.Sections sections = Snapshot.map(file);
+        VertexTable<V> vertices = new MappedVertices<>(codec, sections.keyOffsets, sections.keyBytes,
+                sections.slots);
+        return new Graph<>(vertices, sections.edgeSrc, sections.edgeDst, sections.weights,
+                sections.offsets, sections.edgeIds, sections.adjacent, edgeFactory);
+    }
+
+    /**
+     * Checks every id, offset, weight and key-table entry of the snapshot in the
+     * given file, reading it through the same kind of mapping readSnapshot uses. It
+     * takes time linear in the size of the file and allocates nothing per edge, and
+     * the pages it reads stay in the page cache for a readSnapshot that follows.
+     *
+     * @throws IOException  if the file cannot be read, is not a graph snapshot, or is
+     *                      corrupt
+     */
+    public static void verifySnapshot(Path file) throws IOException {
+        Snapshot.Sections sections = Snapshot.map(file);
+        int numVertices = sections.keyOffsets.capacity() - 1;
+        int numEdges = sections.edgeSrc.capacity();
+        boolean valid = Snapshot.isOffsets(sections.offsets, 2 * numEdges)
+                && Snapshot.isOffsets(sections.keyOffsets, sections.keyBytes.capacity())
+                && Snapshot.isIds(sections.edgeIds, numEdges)
+                && Snapshot.isIds(sections.adjacent, numVertices)
+                && Snapshot.isIds(sections.edgeSrc, numVertices)
+                && Snapshot.isIds(sections.edgeDst, numVertices)
+                && Snapshot.isIds(sections.slots, numVertices + 1);
+        for (int e = 0; valid && e < numEdges; e++) {
+            valid = sections.weights.get(e) >= 0;
+        }
+        if (valid) {
+            // Every vertex must be the first match for its own key, which also rules
+            // out two vertices with the same key.
+            MappedVertices<Object> vertices = new MappedVertices<>(null, sections.keyOffsets,
+                    sections.keyBytes, sections.slots);
+            for (int id = 0; valid && id < numVertices; id++) {
+                valid = vertices.findKey(vertices.key(id)) == id;
+            }
+        }
+        if (!valid) {
+            throw new IOException("graph snapshot is corrupt: " + file);
+        }
+    }
+
+    /**
+     * Turns vertices into bytes and back for graph snapshots. Decoding what a
+     * vertex encodes to must give a vertex equal to it, and equal vertices must
+     * encode to the same bytes, since a mapped snapshot finds a vertex by its key.
+     */
+    public interface VertexCodec<V> {
+        byte[] encode(V vertex);
+
+        V decode(byte[] bytes);
+    }
+
+    /**
+     * Recreates the edges of a graph loaded from a snapshot.
+     */
+    public interface EdgeFactory<V, E> {
+        E create(V vertex1, V vertex2, double weight);
+    }
+
+    // Returns edge e, making it with the edge factory first if it was given without
+    // an object and nothing has needed it yet. Safe to call from several threads:
+    // if two make the same edge at once, both return the one stored first.
+    private E edgeAt(int e) {
+        E edge = edgeTable == null ? null : edgeTable[e];
+        if (edge != null) {
+            return edge;
+        }
+        AtomicReferenceArray<E> created = createdEdges;
+        if (created == null) {
+            created = allocateCreatedEdges();
+        }
+        edge = created.get(e);
+        if (edge == null) {
+            E made = edgeFactory.create(vertexTable.get(edgeSrc.get(e)), vertexTable.get(edgeDst.get(e)),
+                    edgeWeight.get(e));
+            edge = created.compareAndSet(e, null, made) ? made : created.get(e);
+        }
+        return edge;
+    }
+
+    private synchronized AtomicReferenceArray<E> allocateCreatedEdges() {
+        if (createdEdges == null) {
+            createdEdges = new AtomicReferenceArray<>(edgeSrc.capacity());
+        }
+        return createdEdges;
     }
 
     /**
      * Returns the set of all edges that make up the minimum spanning tree of
      * this graph.
      *
-     * If there exists multiple valid MSTs, return any one of them.
+     * If there exists multiple valid MSTs, return any one of them. The algorithm is
+     * picked from the density of the graph, as by MstStrategy.AUTO.
+     *
+     * Precondition: the graph does not contain any unconnected components. Use
+     * isConnected or connectedComponents to check, or findMinimumSpanningForest for
+     * graphs that may be disconnected.
+     */
+    public ISet<E> findMinimumSpanningTree() {
+        if (dynamicForest != null) {
+            return readMaintainedForest();
+        }
+        return findMinimumSpanningTree(MstStrategy.AUTO);
+    }
+
+    /**
+     * The algorithms findMinimumSpanningTree can use.
+     */
+    public enum MstStrategy {
+        /**
+         * Kruskal's algorithm on one thread, popping edges lightest first until the
+         * tree is complete.
+         */
+        KRUSKAL,
+
+        /**
+         * Boruvka's algorithm on the common fork/join pool. Each round finds every
+         * component's lightest outgoing edge in parallel over chunks of the edges,
+         * then merges the components along them. Worth it on graphs with millions of
+         * edges and several cores.
+         */
+        BORUVKA,
+
+        /**
+         * Prim's algorithm on one thread, growing the tree outward over the adjacency
+         * index with an indexed heap of the vertices just outside it. Best on dense
+         * graphs, where it never orders the edges at all.
+         */
+        PRIM,
+
+        /**
+         * Prim's algorithm if the graph averages at least PRIM_MIN_DENSITY edges per
+         * vertex, and Kruskal's otherwise.
+         */
+        AUTO;
+
+        /**
+         * The fewest edges per vertex at which AUTO picks Prim's algorithm.
+         */
+        public static final int PRIM_MIN_DENSITY = 2;
+    }
+
+    /**
+     * Returns the edges of a minimum spanning tree of this graph, found with the
+     * given algorithm.
      *
      * Precondition: the graph does not contain any unconnected components.
      */
-    public ISet<E> findMinimumSpanningTree() { // use Kruskal's
-        
-        IDisjointSet<V> mstSet = new ArrayDisjointSet<>();                     
-        for(V vertex : vertices) {
-            mstSet.makeSet(vertex);
+    public ISet<E> findMinimumSpanningTree(MstStrategy strategy) {
+        if (strategy == MstStrategy.AUTO) {
+            strategy = edgeCount >= (long) MstStrategy.PRIM_MIN_DENSITY * vertexTable.size()
+                    ? MstStrategy.PRIM : MstStrategy.KRUSKAL;
+        }
+        SearchListener listener = searchListener;
+        SearchStats stats = listener == null ? null : new SearchStats(strategy.name());
+        try {
+            switch (strategy) {
+                case PRIM:
+                    ensureAdjacency();
+                    return toEdgeSet(prim(stats));
+                case BORUVKA:
+                    return toEdgeSet(new Boruvka(vertexTable.size(), edgeCount, edgeSrc, edgeDst, edgeWeight)
+                            .run(stats));
+                default:
+                    return toEdgeSet(kruskal(Math.max(vertexTable.size() - 1, 0), stats));
+            }
+        } finally {
+            publish(listener, stats);
+        }
+    }
+
+    /**
+     * Returns the edges of a minimum spanning forest of this graph: a minimum
+     * spanning tree of each connected component. An isolated vertex contributes no
+     * edges. Unlike findMinimumSpanningTree, the graph need not be connected.
+     *
+     * If there exists multiple valid forests, return any one of them.
+     */
+    public ISet<E> findMinimumSpanningForest() {
+        if (dynamicForest != null) {
+            return readMaintainedForest();
+        }
+        int targetEdges = vertexTable.size() - connectedComponents().count();
+        SearchListener listener = searchListener;
+        SearchStats stats = listener == null ? null : new SearchStats(MstStrategy.KRUSKAL.name());
+        try {
+            return toEdgeSet(kruskal(targetEdges, stats));
+        } finally {
+            publish(listener, stats);
+        }
+    }
+
+    /**
+     * Splits the vertices of this graph into its connected components. The result is
+     * computed once and shared by later calls.
+     */
+    public Components<V, E> connectedComponents() {
+        buildConnectivity();
+        return components;
+    }
+
+    /**
+     * Returns true if there is a path between the two vertices. The first query
+     * merges every edge into a union-find snapshot and flattens it, so later ones
+     * take a single step per vertex and only read it; they are safe to make from
+     * several threads at once. Adding an edge merges it into the snapshot in
+     * near-constant time. Until connectedComponents flattens the snapshot again,
+     * queries after such a merge take the graph's lock and compress the paths they
+     * walk, which keeps them near-constant amortized.
+     *
+     * @throws IllegalArgumentException  if either vertex is not in this graph
+     */
+    public boolean isConnected(V vertex1, V vertex2) {
+        int id1 = idOf(vertex1);
+        int id2 = idOf(vertex2);
+        IntDisjointSet sets = connectivity;
+        if (sets == null) {
+            buildConnectivity();
+            sets = connectivity;
+        }
+        if (connectivityDirty) {
+            return isConnectedCompressing(sets, id1, id2);
+        }
+        return sets.representativeOf(id1) == sets.representativeOf(id2);
+    }
+
+    // Answers a connectivity query on a union-find that addEdge has merged into
+    // since it was last flattened, compressing the paths on the way.
+    private synchronized boolean isConnectedCompressing(IntDisjointSet sets, int id1, int id2) {
+        return sets.findSet(id1) == sets.findSet(id2);
+    }
+
+    // Merges every edge into a fresh union-find unless there is one already (added
+    // edges keep it current), and labels the roots 0, 1, 2, ... in id order. The
+    // union-find is flattened so each id points straight at its root, either before
+    // a fresh one is published or when addEdge has merged into it since. Compressing
+    // only moves an id's pointer to another of its ancestors, so isConnected calls
+    // reading it on other threads still find the right roots.
+    private synchronized void buildConnectivity() {
+        if (components != null) {
+            return;
+        }
+        int numIds = vertexTable.size();
+        IntDisjointSet sets = connectivity;
+        if (sets == null) {
+            sets = new IntDisjointSet(numIds);
+            for (int id = 0; id < numIds; id++) {
+                sets.makeSet(id);
+            }
+            for (int e = 0; e < edgeCount; e++) {
+                sets.unionIfDisjoint(edgeSrc.get(e), edgeDst.get(e));
+            }
+        }
+        if (sets != connectivity || connectivityDirty) {
+            for (int id = 0; id < numIds; id++) {
+                sets.findSet(id);
+            }
+            connectivityDirty = false;
+        }
+        int[] rootLabels = new int[numIds];
+        Arrays.fill(rootLabels, -1);
+        int[] labels = new int[numIds];
+        int count = 0;
+        for (int id = 0; id < numIds; id++) {
+            int root = sets.representativeOf(id);
+            if (rootLabels[root] == -1) {
+                rootLabels[root] = count;
+                count++;
+            }
+            labels[id] = rootLabels[root];
+        }
+        connectivity = sets;
+        components = new Components<>(this, labels, count);
+    }
+
+    /**
+     * Starts sending statistics for every later findShortestPathBetween,
+     * findMinimumSpanningTree and findMinimumSpanningForest call to the given
+     * listener, or stops if it is null. The listener is called on the thread that
+     * made the call, after it finishes (or throws).
+     *
+     * While no listener is set, the algorithms gather nothing beyond a few local
+     * counters, and no statistics object is created.
+     */
+    public void setSearchListener(SearchListener listener) {
+        this.searchListener = listener;
+    }
+
+    /**
+     * Returns the current search listener, or null if there is none.
+     */
+    public SearchListener searchListener() {
+        return searchListener;
+    }
+
+    private static void publish(SearchListener listener, SearchStats stats) {
+        if (stats != null) {
+            stats.elapsedNanos = System.nanoTime() - stats.startNanos;
+            listener.searchFinished(stats);
+        }
+    }
+
+    private ISet<E> toEdgeSet(IntList edges) {
+        ISet<E> set = new ChainedHashSet<>();
+        for (int i = 0; i < edges.size; i++) {
+            set.add(edgeAt(edges.ids[i]));
+        }
+        return set;
+    }
+
+    // Prim's algorithm, restarted from every vertex not yet reached so that it
+    // covers every component. The heap holds the vertices next to the tree, keyed by
+    // the lightest edge that would join each one to it.
+    private IntList prim(SearchStats stats) {
+        int numIds = vertexTable.size();
+        int[] joiningEdges = new int[numIds];
+        Arrays.fill(joiningEdges, -1);
+        BitSet inTree = new BitSet(numIds);
+        IndexedArrayHeap frontier = new IndexedArrayHeap(numIds);
+        IntList tree = new IntList();
+        long settled = 0;
+        long relaxed = 0;
+        int peak = 0;
+        for (int root = 0; root < numIds; root++) {
+            if (inTree.get(root)) {
+                continue;
+            }
+            frontier.insert(root, 0.0);
+            while (!frontier.isEmpty()) {
+                int vertex = frontier.removeMin();
+                settled++;
+                inTree.set(vertex);
+                if (joiningEdges[vertex] != -1) {
+                    tree.add(joiningEdges[vertex]);
+                }
+                for (int k = offsets.get(vertex); k < offsets.get(vertex + 1); k++) {
+                    int neighbor = adjacent.get(k);
+                    int edgeId = edgeIds.get(k);
+                    if (!inTree.get(neighbor)
+                            && frontier.insertOrDecrease(neighbor, edgeWeight.get(edgeId))) {
+                        joiningEdges[neighbor] = edgeId;
+                        relaxed++;
+                    }
+                }
+            }
+            peak = Math.max(peak, frontier.peakSize());
+        }
+        if (stats != null) {
+            stats.addSearch(settled, relaxed, settled, peak);
+        }
+        return tree;
+    }
+
+    // Kruskal's algorithm, stopping as soon as the forest has targetEdges edges.
+    // The edges are heapified in linear time and popped only as needed, so on a
+    // dense graph most of them are never ordered at all.
+    private IntList kruskal(int targetEdges, SearchStats stats) {
+        // Vertices are already numbered, so union-find runs on their ids directly.
+        IntDisjointSet mstSet = new IntDisjointSet(vertexTable.size());
+        for (int id = 0; id < vertexTable.size(); id++) {
+            mstSet.makeSet(id);
         }
-        
-        IList<E> top = Searcher.topKSort(edges.size(), this.edges);
-        
-        ISet<E> mst = new ChainedHashSet<>();
-        for(E edge: top) {
-            if(mstSet.findSet(edge.getVertex1()) != mstSet.findSet(edge.getVertex2())){
-                mstSet.union(edge.getVertex1(),edge.getVertex2());
-                mst.add(edge);                
+
+        IndexedArrayHeap edges = new IndexedArrayHeap(edgeCount);
+        edges.heapify(edgeWeight.hasArray() ? edgeWeight.array() : copyOf(edgeWeight, edgeCount, edgeCount),
+                edgeCount);
+
+        IntList mst = new IntList();
+        long popped = 0;
+        while (mst.size < targetEdges && !edges.isEmpty()) {
+            int e = edges.removeMin();
+            popped++;
+            if (mstSet.unionIfDisjoint(edgeSrc.get(e), edgeDst.get(e))) {
+                mst.add(e);
             }
         }
+        if (stats != null) {
+            stats.heapInserts += edgeCount;
+            stats.heapRemoves += popped;
+            stats.peakHeapSize = Math.max(stats.peakHeapSize, edges.peakSize());
+            stats.unionFindOperations += vertexTable.size() + popped;
+        }
         return mst;
     }
     
@@ -161,116 +971,2375 @@ public class Graph<V, E extends Edge<V> & Comparable<E>> {
      *
      * Return an empty list if the start and end vertices are the same.
      *
-     * @throws NoPathExistsException  if there does not exist a path from the start to the end
+     * @throws IllegalArgumentException  if the start or end vertex is not in this graph
+     * @throws NoPathExistsException     if there does not exist a path from the start to the end
+     */
+    public IList<E> findShortestPathBetween(V start, V end) {
+        return findShortestPathBetween(start, end,
+                hierarchy != null ? SearchMode.CONTRACTION_HIERARCHY : SearchMode.DIJKSTRA);
+    }
+
+    /**
+     * The ways findShortestPathBetween can search for a path.
+     */
+    public enum SearchMode {
+        /**
+         * Dijkstra's algorithm outward from the start until the end is settled. Uses
+         * the shortest-path cache when it is enabled. This is what
+         * findShortestPathBetween(start, end) does unless a contraction hierarchy
+         * has been prepared.
+         */
+        DIJKSTRA,
+
+        /**
+         * Dijkstra's algorithm outward from both the start and the end at once,
+         * stopping when the two frontiers can no longer improve on the best meeting
+         * point found. This usually settles far fewer vertices on large sparse graphs.
+         */
+        BIDIRECTIONAL,
+
+        /**
+         * A bidirectional search restricted to the upward edges of the contraction
+         * hierarchy built by prepareContractionHierarchy, with shortcuts unpacked
+         * back into the original edges.
+         */
+        CONTRACTION_HIERARCHY
+    }
+
+    /**
+     * Returns the edges that make up the shortest path from the start to the end,
+     * searching in the given mode. The result is the same as findShortestPathBetween(V, V):
+     * ordered from the start to the end, and empty if they are the same vertex.
+     *
+     * @throws IllegalArgumentException  if the start or end vertex is not in this graph
+     * @throws IllegalStateException     if the mode is CONTRACTION_HIERARCHY and no
+     *                                   hierarchy has been prepared
+     * @throws NoPathExistsException     if there does not exist a path from the start to the end
      */
-    public IList<E> findShortestPathBetween(V start, V end) { // Dijkastra
-        // create a inner class of comparable vertexDic<vertex, weight> compare by weight
-        // insert  vertexDic into heap
+    public IList<E> findShortestPathBetween(V start, V end, SearchMode mode) {
         if (start.equals(end)) {
             return new DoubleLinkedList<E>();
         }
-        
-        ChainedHashDictionary<V, Double> costs = new ChainedHashDictionary<>();
-        ISet<E> path = new ChainedHashSet<E>();
-        ISet<V> visited = new ChainedHashSet<V>();
-        ChainedHashDictionary<V, V> smallestEdge = new ChainedHashDictionary<>();
-        ISet<E> visitedEdge = new ChainedHashSet<E>();
-        ArrayHeap<VDPair<V>> heap = new ArrayHeap<>();
-        
-        for (V vertex : vertices) {
-            costs.put(vertex, Double.POSITIVE_INFINITY);
-        }
-        costs.put(start, 0.0);
-        VDPair<V> currPair = new VDPair<>(start, 0.0);
-        heap.insert(currPair);        
-        V current = start;
-        Double currCost = 0.0;
-        
-        while (!heap.isEmpty() && !current.equals(end) && !currCost.equals(Double.POSITIVE_INFINITY)) {
- 
-            current = heap.removeMin().getVertex();
-            visited.add(current);
-            ISet<E> visitable = findVisitable(current);            
-            for (E edge : visitable) {
-                V target = edge.getOtherVertex(current);
-                if(costs.get(current)+edge.getWeight() <= costs.get(target)) {
-                    smallestEdge.put(edge.getOtherVertex(current), current);
-                }
-                double newCost = Math.min(costs.get(current)+edge.getWeight(), costs.get(target));
-                if(!visited.contains(target)) {
-                    costs.put(target, newCost);
-                    heap.insert(new VDPair<>(target, newCost));        
-                }                            
-                visitedEdge.add(edge);
-            }
-            
-            V nextCheap = heap.peekMin().getVertex();
-            for(E prev: visitedEdge) {
-                if((prev.getVertex1().equals(nextCheap) || prev.getVertex2().equals(nextCheap))
-                        && prev.getOtherVertex(nextCheap).equals(smallestEdge.get(nextCheap))) {
-                    E addedpath = prev;
-                    path.add(addedpath);
-                }
-            }            
-            
-            currCost = heap.peekMin().getCost();
-        }
-        
-        if(current != end) {
-            throw new NoPathExistsException();
+        ensureAdjacency();
+        int startId = idOf(start);
+        int endId = idOf(end);
+        if (mode == SearchMode.CONTRACTION_HIERARCHY && hierarchy == null) {
+            throw new IllegalStateException();
         }
-       
-        return setToList(path);
-        
-        
-    }
-    
-    private ISet<E> findVisitable (V start){
-        ISet<E> visitable = new ChainedHashSet<>();
-        for(E edge: edges) {
-            if(edge.getVertex1().equals(start) || edge.getVertex2().equals(start)) {
-                visitable.add(edge);
+        SearchListener listener = searchListener;
+        SearchStats stats = listener == null ? null : new SearchStats(mode.name());
+        try {
+            switch (mode) {
+                case BIDIRECTIONAL:
+                    return bidirectionalSearch(startId, endId, stats);
+                case CONTRACTION_HIERARCHY:
+                    return toPath(hierarchy.findPath(startId, endId, stats));
+                default:
+                    if (pathCache != null) {
+                        return cachedTree(startId, stats).pathTo(end);
+                    }
+                    return search(startId, endId, stats).pathTo(end);
             }
+        } finally {
+            publish(listener, stats);
         }
-        return visitable;
     }
-    
-//    private E findEdge(V vertex1, V vertex2) {
-//        for(E edge : edges) {
-//            if((edge.getVertex1().equals(vertex1) && edge.getVertex2().equals(vertex2)) ||
-//                    (edge.getVertex1().equals(vertex2) && edge.getVertex2().equals(vertex1))) {
-//                return edge;
-//            }else {
-//                if(edge.getVertex1().equals(vertex2)；
-//            }
-//            
-//        }
-//        return null;
-//        
-//    }
-    
-    private static class VDPair<V> implements Comparable<VDPair<V>>{
-        private V vertex;
-        private Double cost;
-        
-        public VDPair(V vertex, Double cost) {
-            this.vertex = vertex;
-            this.cost = cost;
-        }
-        @Override
-        public int compareTo(VDPair<V> another) {
-            return(this.cost.compareTo(another.getCost()));
-            
-        }
-        
-        private V getVertex() {
-            return this.vertex;
+
+    /**
+     * Preprocesses this graph into a contraction hierarchy, after which
+     * findShortestPathBetween(start, end) answers point-to-point queries by searching
+     * only upward through the hierarchy. Preprocessing can take a while on large
+     * graphs, but each later query settles a tiny fraction of the vertices that
+     * Dijkstra's algorithm would.
+     */
+    public void prepareContractionHierarchy() {
+        hierarchy = new ContractionHierarchy(vertexTable.size(), edgeCount, edgeSrc, edgeDst, edgeWeight);
+    }
+
+    /**
+     * Returns the edges that make up the shortest path from the start to the end,
+     * using A* search guided by the given heuristic. The result has the same form as
+     * findShortestPathBetween(V, V).
+     *
+     * heuristic.applyAsDouble(vertex, end) should estimate the cost of the cheapest
+     * path from vertex to end without ever overestimating it, such as the straight-line
+     * distance between two points. Any such heuristic gives a shortest path, and
+     * the closer its estimates, the fewer vertices are settled. A heuristic that
+     * always returns 0 gives exactly the same path as findShortestPathBetween(V, V).
+     *
+     * @throws IllegalArgumentException  if the start or end vertex is not in this graph
+     * @throws NoPathExistsException     if there does not exist a path from the start to the end
+     */
+    public IList<E> findShortestPathBetween(V start, V end, ToDoubleBiFunction<V, V> heuristic) {
+        if (start.equals(end)) {
+            return new DoubleLinkedList<E>();
         }
-        
-        private Double getCost() {
-            return this.cost;
+        ensureAdjacency();
+        int startId = idOf(start);
+        int endId = idOf(end);
+        SearchListener listener = searchListener;
+        SearchStats stats = listener == null ? null : new SearchStats("A_STAR");
+        try {
+            return aStarSearch(startId, endId, heuristic, stats);
+        } finally {
+            publish(listener, stats);
         }
     }
 
-        
+    // Dijkstra's algorithm with each vertex queued by its cost so far plus its
+    // estimated cost to the end. Each vertex's estimate is computed once, the first
+    // time the vertex is reached. The end is settled with its true cost as long as
+    // the estimates never overestimate; estimates that are not consistent can find a
+    // cheaper route to an already-settled vertex, in which case it is queued again.
+    private IList<E> aStarSearch(int startId, int endId, ToDoubleBiFunction<V, V> heuristic,
+            SearchStats stats) {
+        V end = vertexTable.get(endId);
+        double[] costs = new double[vertexTable.size()];
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+        double[] estimates = new double[vertexTable.size()];
+        Arrays.fill(estimates, Double.NaN);
+        int[] parentEdges = new int[vertexTable.size()];
+        Arrays.fill(parentEdges, -1);
+        IndexedArrayHeap heap = new IndexedArrayHeap(vertexTable.size());
+
+        costs[startId] = 0.0;
+        heap.insert(startId, heuristic.applyAsDouble(vertexTable.get(startId), end));
+        long settled = 0;
+        long relaxed = 0;
+        try {
+            while (!heap.isEmpty()) {
+                int current = heap.removeMin();
+                settled++;
+                if (current == endId) {
+                    return pathFromSource(startId, endId, parentEdges);
+                }
+                for (int i = offsets.get(current); i < offsets.get(current + 1); i++) {
+                    int edgeId = edgeIds.get(i);
+                    int target = adjacent.get(i);
+                    double newCost = costs[current] + edgeWeight.get(edgeId);
+                    if (newCost < costs[target]) {
+                        costs[target] = newCost;
+                        parentEdges[target] = edgeId;
+                        if (Double.isNaN(estimates[target])) {
+                            estimates[target] = heuristic.applyAsDouble(vertexTable.get(target), end);
+                        }
+                        heap.insertOrDecrease(target, newCost + estimates[target]);
+                        relaxed++;
+                    }
+                }
+            }
+            throw new NoPathExistsException();
+        } finally {
+            if (stats != null) {
+                stats.addSearch(settled, relaxed, settled + heap.size(), heap.peakSize());
+            }
+        }
+    }
+
+    // Runs one Dijkstra search forward from the start and one backward from the end,
+    // always advancing the side whose next vertex is closer. Whenever an edge links
+    // a vertex labeled by one side to a vertex labeled by the other, the route
+    // through it is a candidate; once the two smallest queued costs add up to at
+    // least the best candidate, no unsettled route can beat it.
+    private IList<E> bidirectionalSearch(int startId, int endId, SearchStats stats) {
+        int numIds = vertexTable.size();
+        double[][] costs = new double[2][numIds];
+        int[][] parentEdges = new int[2][numIds];
+        boolean[][] visited = new boolean[2][numIds];
+        IndexedArrayHeap[] heaps = {new IndexedArrayHeap(numIds), new IndexedArrayHeap(numIds)};
+        for (int side = 0; side < 2; side++) {
+            Arrays.fill(costs[side], Double.POSITIVE_INFINITY);
+            Arrays.fill(parentEdges[side], -1);
+        }
+        costs[0][startId] = 0.0;
+        heaps[0].insert(startId, 0.0);
+        costs[1][endId] = 0.0;
+        heaps[1].insert(endId, 0.0);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meetingEdge = -1;
+        int forwardEnd = -1;
+        int backwardEnd = -1;
+        long settled = 0;
+        long relaxed = 0;
+        while (true) {
+            double forwardMin = heaps[0].isEmpty() ? Double.POSITIVE_INFINITY : heaps[0].peekMinPriority();
+            double backwardMin = heaps[1].isEmpty() ? Double.POSITIVE_INFINITY : heaps[1].peekMinPriority();
+            if (forwardMin + backwardMin >= best) {
+                break;
+            }
+            int side = forwardMin <= backwardMin ? 0 : 1;
+            double[] sideCosts = costs[side];
+            double[] otherCosts = costs[1 - side];
+            int current = heaps[side].removeMin();
+            settled++;
+            visited[side][current] = true;
+            for (int i = offsets.get(current); i < offsets.get(current + 1); i++) {
+                int edgeId = edgeIds.get(i);
+                int target = adjacent.get(i);
+                double newCost = sideCosts[current] + edgeWeight.get(edgeId);
+                if (!visited[side][target] && newCost < sideCosts[target]) {
+                    sideCosts[target] = newCost;
+                    parentEdges[side][target] = edgeId;
+                    heaps[side].insertOrDecrease(target, newCost);
+                    relaxed++;
+                }
+                if (newCost + otherCosts[target] < best) {
+                    best = newCost + otherCosts[target];
+                    meetingEdge = edgeId;
+                    forwardEnd = side == 0 ? current : target;
+                    backwardEnd = side == 0 ? target : current;
+                }
+            }
+        }
+        if (stats != null) {
+            stats.addSearch(settled, relaxed, settled + heaps[0].size() + heaps[1].size(),
+                    Math.max(heaps[0].peakSize(), heaps[1].peakSize()));
+        }
+
+        if (meetingEdge == -1) {
+            throw new NoPathExistsException();
+        }
+        IList<E> path = pathFromSource(startId, forwardEnd, parentEdges[0]);
+        path.add(edgeAt(meetingEdge));
+        for (int vertex = backwardEnd; vertex != endId; vertex = parentOf(vertex, parentEdges[1])) {
+            path.add(edgeAt(parentEdges[1][vertex]));
+        }
+        return path;
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from the given source until every reachable vertex
+     * is settled, and returns the resulting tree. Use this instead of repeated calls
+     * to findShortestPathBetween when many targets share one source.
+     *
+     * @throws IllegalArgumentException  if the source is not in this graph
+     */
+    public ShortestPathTree<V, E> shortestPathTree(V source) {
+        ensureAdjacency();
+        if (pathCache != null) {
+            return cachedTree(idOf(source), null);
+        }
+        return search(idOf(source), -1, (SearchStats) null);
+    }
+
+    /**
+     * Starts keeping the complete shortest-path trees of up to maxTrees recently used
+     * sources, so findShortestPathBetween and shortestPathTree can answer repeated
+     * queries from those sources without searching again. The least recently used
+     * tree is evicted first. Each cached tree takes about 12 bytes per vertex.
+     *
+     * Once the cache is on, a query from an uncached source settles the whole graph
+     * rather than stopping at its target. Calling this again replaces the cache.
+     *
+     * @throws IllegalArgumentException  if maxTrees is less than 1
+     */
+    public void enableShortestPathCache(int maxTrees) {
+        if (maxTrees < 1) {
+            throw new IllegalArgumentException();
+        }
+        pathCache = new ShortestPathCache<>(vertexTable.size(), maxTrees);
+    }
+
+    /**
+     * Drops the shortest-path cache, if there is one.
+     */
+    public void disableShortestPathCache() {
+        pathCache = null;
+    }
+
+    /**
+     * Returns the shortest-path cache so its hit, miss and eviction counts can be
+     * read, or null if the cache is not enabled.
+     */
+    public ShortestPathCache<V, E> shortestPathCache() {
+        return pathCache;
+    }
+
+    private ShortestPathTree<V, E> cachedTree(int sourceId, SearchStats stats) {
+        ShortestPathCache<V, E> cache = pathCache;
+        ShortestPathTree<V, E> tree = cache.get(sourceId);
+        if (tree == null) {
+            tree = search(sourceId, -1, stats);
+            cache.put(sourceId, tree);
+        }
+        return tree;
+    }
+
+    private ShortestPathTree<V, E> search(int sourceId, int targetId, SearchStats stats) {
+        SearchScratch scratch = new SearchScratch(vertexTable.size());
+        search(sourceId, targetId, scratch, stats);
+        return new ShortestPathTree<>(this, sourceId, scratch.costs, scratch.parentEdges);
+    }
+
+    // Runs Dijkstra's algorithm from the source, stopping as soon as the target is
+    // settled (pass -1 to settle everything reachable), and leaves the costs and
+    // parent edges of the settled vertices in the given freshly reset scratch space.
+    // Every vertex sits in the heap at most once: a cheaper route to a vertex that is
+    // already queued lowers its priority in place and records the edge it came through.
+    private void search(int sourceId, int targetId, SearchScratch scratch, SearchStats stats) {
+        double[] costs = scratch.costs;
+        int[] parentEdges = scratch.parentEdges;
+        BitSet visited = scratch.visited;
+        IndexedArrayHeap heap = scratch.heap;
+
+        costs[sourceId] = 0.0;
+        heap.insert(sourceId, 0.0);
+        long settled = 0;
+        long relaxed = 0;
+        while (!heap.isEmpty()) {
+            int current = heap.removeMin();
+            settled++;
+            visited.set(current);
+            if (current == targetId) {
+                break;
+            }
+            for (int i = offsets.get(current); i < offsets.get(current + 1); i++) {
+                int edgeId = edgeIds.get(i);
+                int target = adjacent.get(i);
+                double newCost = costs[current] + edgeWeight.get(edgeId);
+                if (!visited.get(target) && newCost < costs[target]) {
+                    costs[target] = newCost;
+                    parentEdges[target] = edgeId;
+                    heap.insertOrDecrease(target, newCost);
+                    relaxed++;
+                }
+            }
+        }
+        if (stats != null) {
+            stats.addSearch(settled, relaxed, settled + heap.size(), heap.peakSize());
+        }
+
+        // Anything still queued was only reached tentatively, so forget it.
+        while (!heap.isEmpty()) {
+            int unsettled = heap.removeMin();
+            costs[unsettled] = Double.POSITIVE_INFINITY;
+            parentEdges[unsettled] = -1;
+        }
+    }
+
+    /**
+     * Computes the complete shortest-path tree of every given source, spreading the
+     * searches across the executor's threads, and hands each tree to the callback as
+     * soon as it is done. Returns once every source has been handled.
+     *
+     * The callback is called from the executor's threads, possibly several at once,
+     * so it must be thread-safe. Each worker reuses one set of search buffers for all
+     * the sources it handles. The graph itself is only read, so it is safe to share,
+     * but it must not be modified while this runs.
+     *
+     * @throws IllegalArgumentException  if any source is not in this graph
+     * @throws RuntimeException          if a search or the callback throws, or the
+     *                                   executor rejects a worker; the first such
+     *                                   exception or error is rethrown unchanged once
+     *                                   all workers stop
+     * @throws IllegalStateException     if the calling thread is interrupted; the
+     *                                   workers are asked to stop, this waits for them,
+     *                                   and the interrupt flag is set again on return
+     */
+    public void shortestPathsFrom(Collection<V> sources, Executor executor,
+            BiConsumer<? super V, ? super ShortestPathTree<V, E>> callback) {
+        ensureAdjacency();
+        int[] sourceIds = new int[sources.size()];
+        int numSources = 0;
+        for (V source : sources) {
+            sourceIds[numSources++] = idOf(source);
+        }
+        if (numSources == 0) {
+            return;
+        }
+
+        int numWorkers = Math.min(numSources, Runtime.getRuntime().availableProcessors());
+        AtomicInteger nextSource = new AtomicInteger(0);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch finished = new CountDownLatch(numWorkers);
+        for (int worker = 0; worker < numWorkers; worker++) {
+            Runnable task = () -> {
+                try {
+                    SearchScratch scratch = new SearchScratch(vertexTable.size());
+                    for (int i = nextSource.getAndIncrement(); i < sourceIds.length && failure.get() == null;
+                            i = nextSource.getAndIncrement()) {
+                        int sourceId = sourceIds[i];
+                        search(sourceId, -1, scratch, null);
+                        callback.accept(vertexTable.get(sourceId), new ShortestPathTree<>(this, sourceId,
+                                Arrays.copyOf(scratch.costs, scratch.costs.length),
+                                Arrays.copyOf(scratch.parentEdges, scratch.parentEdges.length)));
+                        scratch.reset();
+                    }
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    finished.countDown();
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RuntimeException | Error e) {
+                // The workers already running stop at their next source. Count down for
+                // this worker and the ones never submitted so the wait below still ends.
+                failure.compareAndSet(null, e);
+                for (int unsubmitted = worker; unsubmitted < numWorkers; unsubmitted++) {
+                    finished.countDown();
+                }
+                break;
+            }
+        }
+
+        // Never return while a worker may still be running the callback. An interrupt
+        // only asks the workers to stop early; the flag is restored once they have.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                failure.compareAndSet(null, new IllegalStateException(e));
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable thrown = failure.get();
+        if (thrown instanceof Error) {
+            throw (Error) thrown;
+        } else if (thrown != null) {
+            throw (RuntimeException) thrown;
+        }
+    }
+
+    // Returns the edges from the source to the target, following the target's parent
+    // edges back to the source and laying them out front to back.
+    private IList<E> pathFromSource(int sourceId, int targetId, int[] parentEdges) {
+        int length = 0;
+        for (int vertex = targetId; vertex != sourceId; vertex = parentOf(vertex, parentEdges)) {
+            length++;
+        }
+        int[] pathEdges = new int[length];
+        int vertex = targetId;
+        for (int i = length - 1; i >= 0; i--) {
+            pathEdges[i] = parentEdges[vertex];
+            vertex = parentOf(vertex, parentEdges);
+        }
+        return toPath(pathEdges);
+    }
+
+    private IList<E> toPath(int[] pathEdges) {
+        IList<E> path = new DoubleLinkedList<>();
+        for (int edgeId : pathEdges) {
+            path.add(edgeAt(edgeId));
+        }
+        return path;
+    }
+
+    // Returns the vertex at the other end of the given vertex's parent edge.
+    private int parentOf(int vertex, int[] parentEdges) {
+        int edgeId = parentEdges[vertex];
+        return edgeSrc.get(edgeId) == vertex ? edgeDst.get(edgeId) : edgeSrc.get(edgeId);
+    }
+
+    private int idOf(V vertex) {
+        int id = vertexTable.find(vertex);
+        if (id < 0) {
+            throw new IllegalArgumentException();
+        }
+        return id;
+    }
+    
+//    private E findEdge(V vertex1, V vertex2) {
+//        for(E edge : edges) {
+//            if((edge.getVertex1().equals(vertex1) && edge.getVertex2().equals(vertex2)) ||
+//                    (edge.getVertex1().equals(vertex2) && edge.getVertex2().equals(vertex1))) {
+//                return edge;
+//            }else {
+//                if(edge.getVertex1().equals(vertex2)；
+//            }
+//            
+//        }
+//        return null;
+//        
+//    }
+    
+    /**
+     * The result of one shortest-path search from a single source: for every vertex
+     * the search settled, its distance from the source and the edge through which it
+     * was reached. Paths to any number of settled targets can be pulled from the same
+     * tree.
+     *
+     * A tree never changes after it is built.
+     */
+    public static class ShortestPathTree<V, E extends Edge<V> & Comparable<E>> {
+        private final Graph<V, E> graph;
+        private final int sourceId;
+        private final double[] costs;
+        private final int[] parentEdges;
+
+        private ShortestPathTree(Graph<V, E> graph, int sourceId, double[] costs, int[] parentEdges) {
+            this.graph = graph;
+            this.sourceId = sourceId;
+            this.costs = costs;
+            this.parentEdges = parentEdges;
+        }
+
+        /**
+         * Returns the vertex this tree was grown from.
+         */
+        public V source() {
+            return graph.vertexTable.get(sourceId);
+        }
+
+        /**
+         * Returns true if the given target can be reached from the source.
+         *
+         * @throws IllegalArgumentException  if the target is not in the graph
+         */
+        public boolean reachable(V target) {
+            return costs[graph.idOf(target)] != Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Returns the total weight of the shortest path from the source to the given
+         * target, or Double.POSITIVE_INFINITY if the target cannot be reached.
+         *
+         * @throws IllegalArgumentException  if the target is not in the graph
+         */
+        public double distanceTo(V target) {
+            return costs[graph.idOf(target)];
+        }
+
+        /**
+         * Returns the edges of the shortest path from the source to the given target,
+         * ordered from the source outward. Returns an empty list for the source itself.
+         *
+         * @throws IllegalArgumentException  if the target is not in the graph
+         * @throws NoPathExistsException     if the target cannot be reached
+         */
+        public IList<E> pathTo(V target) {
+            int targetId = graph.idOf(target);
+            if (costs[targetId] == Double.POSITIVE_INFINITY) {
+                throw new NoPathExistsException();
+            }
+            return graph.pathFromSource(sourceId, targetId, parentEdges);
+        }
+    }
+
+    /**
+     * The connected components of a graph. Components are numbered 0 through
+     * count() - 1 in the order their first vertex was added to the graph.
+     */
+    public static class Components<V, E extends Edge<V> & Comparable<E>> {
+        private final Graph<V, E> graph;
+        private final int[] labels;
+        private final int count;
+
+        private Components(Graph<V, E> graph, int[] labels, int count) {
+            this.graph = graph;
+            this.labels = labels;
+            this.count = count;
+        }
+
+        /**
+         * Returns the number of connected components.
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * Returns the number of the component holding the given vertex.
+         *
+         * @throws IllegalArgumentException  if the vertex is not in the graph
+         */
+        public int componentOf(V vertex) {
+            return labels[graph.idOf(vertex)];
+        }
+
+        /**
+         * Returns the component number of every vertex, indexed in the order the
+         * vertices were added to the graph. The array is a copy.
+         */
+        public int[] labels() {
+            return Arrays.copyOf(labels, labels.length);
+        }
+    }
+
+    /**
+     * Receives the statistics of shortest-path and spanning-tree calls on a graph.
+     * See setSearchListener.
+     */
+    public interface SearchListener {
+        /**
+         * Called once per call, with that call's statistics.
+         */
+        void searchFinished(SearchStats stats);
+    }
+
+    /**
+     * What one findShortestPathBetween, findMinimumSpanningTree or
+     * findMinimumSpanningForest call did, and how long it took. Counts that do not
+     * apply to the algorithm used are zero; a shortest-path query answered from the
+     * cache counts nothing but its time.
+     */
+    public static class SearchStats {
+        private final String algorithm;
+        private final long startNanos;
+        private long verticesSettled;
+        private long edgesRelaxed;
+        private long heapInserts;
+        private long heapRemoves;
+        private int peakHeapSize;
+        private long unionFindOperations;
+        private long elapsedNanos;
+
+        private SearchStats(String algorithm) {
+            this.algorithm = algorithm;
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Returns the name of the algorithm that ran: a SearchMode or MstStrategy
+         * name, A_STAR, or DYNAMIC_FOREST for a spanning tree or forest read back
+         * from the one kept by maintainMinimumSpanningForest.
+         */
+        public String algorithm() {
+            return algorithm;
+        }
+
+        /**
+         * Returns the number of vertices taken off a search heap as final.
+         */
+        public long verticesSettled() {
+            return verticesSettled;
+        }
+
+        /**
+         * Returns the number of edges that gave a vertex a better label.
+         */
+        public long edgesRelaxed() {
+            return edgesRelaxed;
+        }
+
+        public long heapInserts() {
+            return heapInserts;
+        }
+
+        public long heapRemoves() {
+            return heapRemoves;
+        }
+
+        /**
+         * Returns the largest number of entries any one heap held at once.
+         */
+        public int peakHeapSize() {
+            return peakHeapSize;
+        }
+
+        /**
+         * Returns the number of makeSet, find and union calls on a disjoint set.
+         */
+        public long unionFindOperations() {
+            return unionFindOperations;
+        }
+
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        // Adds the work of one search, where every entry taken off the heap was
+        // settled and the heap has had inserts entries in total.
+        private void addSearch(long settled, long relaxed, long inserts, int peak) {
+            verticesSettled += settled;
+            edgesRelaxed += relaxed;
+            heapInserts += inserts;
+            heapRemoves += settled;
+            peakHeapSize = Math.max(peakHeapSize, peak);
+        }
+
+        @Override
+        public String toString() {
+            return algorithm + "{settled=" + verticesSettled + ", relaxed=" + edgesRelaxed
+                    + ", heapInserts=" + heapInserts + ", heapRemoves=" + heapRemoves
+                    + ", peakHeapSize=" + peakHeapSize + ", unionFindOperations=" + unionFindOperations
+                    + ", elapsedNanos=" + elapsedNanos + "}";
+        }
+    }
+
+    /**
+     * A search listener that keeps, for each algorithm, a histogram of every
+     * statistic across all the calls it has seen. Histogram buckets are powers of
+     * two, so each takes a fixed, small amount of memory however many calls are
+     * recorded. A registry may be shared by many graphs and threads.
+     */
+    public static class SearchStatsRegistry implements SearchListener {
+        private static final String[] METRICS = {
+            "elapsed_micros", "vertices_settled", "edges_relaxed", "heap_inserts",
+            "heap_removes", "peak_heap_size", "union_find_operations"
+        };
+
+        private ChainedHashDictionary<String, Histogram[]> histograms = new ChainedHashDictionary<>();
+
+        @Override
+        public synchronized void searchFinished(SearchStats stats) {
+            if (!histograms.containsKey(stats.algorithm)) {
+                Histogram[] byMetric = new Histogram[METRICS.length];
+                for (int i = 0; i < byMetric.length; i++) {
+                    byMetric[i] = new Histogram();
+                }
+                histograms.put(stats.algorithm, byMetric);
+            }
+            Histogram[] byMetric = histograms.get(stats.algorithm);
+            byMetric[0].record(stats.elapsedNanos / 1000);
+            byMetric[1].record(stats.verticesSettled);
+            byMetric[2].record(stats.edgesRelaxed);
+            byMetric[3].record(stats.heapInserts);
+            byMetric[4].record(stats.heapRemoves);
+            byMetric[5].record(stats.peakHeapSize);
+            byMetric[6].record(stats.unionFindOperations);
+        }
+
+        /**
+         * Returns the number of calls recorded for the given algorithm.
+         */
+        public synchronized long count(String algorithm) {
+            return histograms.containsKey(algorithm) ? histograms.get(algorithm)[0].count : 0;
+        }
+
+        /**
+         * Writes every histogram in the Prometheus text exposition format: one
+         * cumulative "le" bucket line per power of two up to the largest value seen,
+         * then _sum and _count lines. Metric names are prefixed with "graph_" and
+         * labelled with the algorithm.
+         */
+        public synchronized void export(Appendable out) throws IOException {
+            for (int i = 0; i < METRICS.length; i++) {
+                String name = "graph_" + METRICS[i];
+                out.append("# TYPE ").append(name).append(" histogram\n");
+                for (KVPair<String, Histogram[]> pair : histograms) {
+                    pair.getValue()[i].export(out, name, pair.getKey());
+                }
+            }
+        }
+
+        /**
+         * Forgets every recorded call.
+         */
+        public synchronized void clear() {
+            histograms = new ChainedHashDictionary<>();
+        }
+    }
+
+    // Bucket i counts the values v with 2^(i-1) <= v < 2^i, and bucket 0 counts zeros.
+    private static class Histogram {
+        private final long[] buckets = new long[Long.SIZE];
+        private long count;
+        private long sum;
+
+        private void record(long value) {
+            buckets[Long.SIZE - Long.numberOfLeadingZeros(Math.max(value, 0))]++;
+            count++;
+            sum += value;
+        }
+
+        private void export(Appendable out, String name, String algorithm) throws IOException {
+            String label = "{algorithm=\"" + algorithm + "\"";
+            int last = buckets.length - 1;
+            while (last > 0 && buckets[last] == 0) {
+                last--;
+            }
+            long cumulative = 0;
+            for (int i = 0; i <= last; i++) {
+                cumulative += buckets[i];
+                // Bucket i holds values below 2^i, so its upper bound is 2^i - 1.
+                long upperBound = i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                out.append(name).append("_bucket").append(label).append(",le=\"")
+                        .append(Long.toString(upperBound)).append("\"} ").append(Long.toString(cumulative))
+                        .append('\n');
+            }
+            out.append(name).append("_bucket").append(label).append(",le=\"+Inf\"} ")
+                    .append(Long.toString(count)).append('\n');
+            out.append(name).append("_sum").append(label).append("} ").append(Long.toString(sum)).append('\n');
+            out.append(name).append("_count").append(label).append("} ").append(Long.toString(count)).append('\n');
+        }
+    }
+
+    /**
+     * A size-bounded, least-recently-used cache of complete shortest-path trees,
+     * keyed by source vertex. Graph.addEdge clears the cache, since a new edge can
+     * shorten paths, so cached trees never go stale. The hit, miss and eviction counts
+     * cover the whole life of the cache, across clears.
+     *
+     * The cache is safe to share between threads.
+     */
+    public static class ShortestPathCache<V, E extends Edge<V> & Comparable<E>> {
+        private final int capacity;
+
+        // trees[id] is the cached tree for source id, or null. The cached ids form a
+        // doubly-linked list through newer and older, from newest (most recently
+        // used) to oldest (next to be evicted).
+        private final ShortestPathTree<V, E>[] trees;
+        private final int[] newer;
+        private final int[] older;
+        private int newest;
+        private int oldest;
+        private int size;
+
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        @SuppressWarnings("unchecked")
+        private ShortestPathCache(int numVertices, int capacity) {
+            this.capacity = capacity;
+            this.trees = (ShortestPathTree<V, E>[]) new ShortestPathTree<?, ?>[numVertices];
+            this.newer = new int[numVertices];
+            this.older = new int[numVertices];
+            this.newest = -1;
+            this.oldest = -1;
+            this.size = 0;
+        }
+
+        /**
+         * Returns the maximum number of trees this cache holds.
+         */
+        public int capacity() {
+            return capacity;
+        }
+
+        /**
+         * Returns the number of trees currently cached.
+         */
+        public synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Returns the number of lookups answered from the cache.
+         */
+        public synchronized long hits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of lookups that had to run a new search.
+         */
+        public synchronized long misses() {
+            return misses;
+        }
+
+        /**
+         * Returns the number of trees dropped to make room for newer ones.
+         */
+        public synchronized long evictions() {
+            return evictions;
+        }
+
+        /**
+         * Drops every cached tree, keeping the hit, miss and eviction counts.
+         */
+        public synchronized void clear() {
+            for (int id = newest; id != -1; id = older[id]) {
+                trees[id] = null;
+            }
+            newest = -1;
+            oldest = -1;
+            size = 0;
+        }
+
+        private synchronized ShortestPathTree<V, E> get(int sourceId) {
+            ShortestPathTree<V, E> tree = trees[sourceId];
+            if (tree == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            unlink(sourceId);
+            linkNewest(sourceId);
+            return tree;
+        }
+
+        private synchronized void put(int sourceId, ShortestPathTree<V, E> tree) {
+            if (trees[sourceId] != null) {
+                // Another thread cached this source while we were searching.
+                unlink(sourceId);
+            } else if (size == capacity) {
+                int evicted = oldest;
+                unlink(evicted);
+                trees[evicted] = null;
+                size--;
+                evictions++;
+            }
+            if (trees[sourceId] == null) {
+                size++;
+            }
+            trees[sourceId] = tree;
+            linkNewest(sourceId);
+        }
+
+        private void unlink(int id) {
+            if (newer[id] == -1) {
+                newest = older[id];
+            } else {
+                older[newer[id]] = older[id];
+            }
+            if (older[id] == -1) {
+                oldest = newer[id];
+            } else {
+                newer[older[id]] = newer[id];
+            }
+        }
+
+        private void linkNewest(int id) {
+            newer[id] = -1;
+            older[id] = newest;
+            if (newest == -1) {
+                oldest = id;
+            } else {
+                newer[newest] = id;
+            }
+            newest = id;
+        }
+    }
+
+    /**
+     * A contraction hierarchy over a graph's vertex and edge ids. Vertices are
+     * contracted one at a time, least important first; contracting a vertex adds a
+     * shortcut arc between two of its remaining neighbors whenever the route through
+     * it is the only shortest one. A vertex's rank is its position in that order.
+     *
+     * Every shortest path then has a version that climbs to a highest-ranked vertex
+     * and descends again, so a query searches upward from both ends over the
+     * arcs leading to higher ranks and unpacks the shortcuts it used.
+     */
+    private static class ContractionHierarchy {
+        // Witness searches give up after settling this many vertices and add the
+        // shortcut. That may add unneeded shortcuts but never loses a shortest path.
+        // Estimating a vertex's priority only needs a rough shortcut count, so those
+        // searches give up sooner.
+        private static final int SIMULATION_SETTLE_LIMIT = 50;
+        private static final int CONTRACTION_SETTLE_LIMIT = 500;
+
+        // Arc i joins arcTails[i] and arcHeads[i] with weight arcWeights[i]. An
+        // original arc stands for edge arcEdges[i]. A shortcut has arcEdges[i] == -1
+        // and bypasses arcMiddles[i]; it unpacks into arcFirsts[i], from the tail to
+        // the middle, followed by arcSeconds[i], from the middle to the head.
+        private int numArcs;
+        private int[] arcTails;
+        private int[] arcHeads;
+        private double[] arcWeights;
+        private int[] arcEdges;
+        private int[] arcMiddles;
+        private int[] arcFirsts;
+        private int[] arcSeconds;
+
+        // ranks[v] is the order in which v was contracted. The arcs from v to
+        // higher-ranked vertices are upArcs[upOffsets[v]] up to upArcs[upOffsets[v + 1]],
+        // leading to upHeads at the same positions.
+        private int[] ranks;
+        private int[] upOffsets;
+        private int[] upArcs;
+        private int[] upHeads;
+
+        // Each querying thread reuses its own scratch space.
+        private final ThreadLocal<QueryScratch> scratch;
+
+        // Contraction state, dropped once the hierarchy is built. incident[v] holds
+        // the ids of the first incidentCounts[v] arcs joining v to uncontracted
+        // vertices (v's own arcs are detached once it is contracted), and the neighbor
+        // arrays list the vertex being contracted's neighbors, where neighborSlots[u]
+        // is u's position if neighborStamps[u] matches neighborStamp.
+        private int[][] incident;
+        private int[] incidentCounts;
+        private int[] neighborIds;
+        private int[] neighborArcs;
+        private int[] neighborSlots;
+        private int[] neighborStamps;
+        private int neighborStamp;
+        private int numNeighbors;
+        private QueryScratch witness;
+
+        private ContractionHierarchy(int numIds, int numEdges, IntBuffer edgeSrc, IntBuffer edgeDst,
+                DoubleBuffer weights) {
+            int capacity = Math.max(2 * numEdges, 16);
+            arcTails = new int[capacity];
+            arcHeads = new int[capacity];
+            arcWeights = new double[capacity];
+            arcEdges = new int[capacity];
+            arcMiddles = new int[capacity];
+            arcFirsts = new int[capacity];
+            arcSeconds = new int[capacity];
+            incident = new int[numIds][];
+            incidentCounts = new int[numIds];
+            for (int v = 0; v < numIds; v++) {
+                incident[v] = new int[4];
+            }
+            for (int edgeId = 0; edgeId < numEdges; edgeId++) {
+                if (edgeSrc.get(edgeId) != edgeDst.get(edgeId)) {
+                    addArc(edgeSrc.get(edgeId), edgeDst.get(edgeId), weights.get(edgeId), edgeId, -1, -1, -1);
+                }
+            }
+
+            neighborIds = new int[numIds];
+            neighborArcs = new int[numIds];
+            neighborSlots = new int[numIds];
+            neighborStamps = new int[numIds];
+            witness = new QueryScratch(numIds);
+            contractAll(numIds);
+            buildUpwardArcs(numIds);
+
+            incident = null;
+            incidentCounts = null;
+            neighborIds = null;
+            neighborArcs = null;
+            neighborSlots = null;
+            neighborStamps = null;
+            witness = null;
+            scratch = ThreadLocal.withInitial(() -> new QueryScratch(numIds));
+        }
+
+        // Contracts vertices in order of increasing priority. Priorities are updated
+        // lazily: a popped vertex's priority is recomputed, and if it has grown past
+        // the next one in line the vertex goes back into the queue. Contracting a
+        // vertex only bumps its neighbors' priorities by one for the deleted
+        // neighbor, which is much cheaper than recomputing them.
+        private void contractAll(int numIds) {
+            ranks = new int[numIds];
+            int[] deletedNeighbors = new int[numIds];
+            IndexedArrayHeap order = new IndexedArrayHeap(numIds);
+            for (int v = 0; v < numIds; v++) {
+                order.insert(v, priority(v, deletedNeighbors));
+            }
+            int rank = 0;
+            while (!order.isEmpty()) {
+                int v = order.removeMin();
+                double priority = priority(v, deletedNeighbors);
+                if (!order.isEmpty() && priority > order.peekMinPriority()) {
+                    order.insert(v, priority);
+                    continue;
+                }
+                contract(v, false);
+                ranks[v] = rank++;
+
+                // Detach v so only arcs between uncontracted vertices stay incident.
+                for (int k = 0; k < incidentCounts[v]; k++) {
+                    int arc = incident[v][k];
+                    removeIncident(otherEnd(arc, v), arc);
+                }
+                incidentCounts[v] = 0;
+
+                for (int i = 0; i < numNeighbors; i++) {
+                    deletedNeighbors[neighborIds[i]]++;
+                    order.changeKey(neighborIds[i], order.priorityOf(neighborIds[i]) + 1);
+                }
+            }
+        }
+
+        // The edge difference (shortcuts added minus arcs removed) plus the number of
+        // neighbors already contracted, which spreads contraction evenly.
+        private double priority(int v, int[] deletedNeighbors) {
+            int shortcuts = contract(v, true);
+            return shortcuts - numNeighbors + deletedNeighbors[v];
+        }
+
+        // Finds which pairs of v's remaining neighbors need a shortcut through v, and
+        // adds those shortcuts unless simulating. Returns the number of shortcuts.
+        private int contract(int v, boolean simulate) {
+            gatherNeighbors(v);
+            int shortcuts = 0;
+            for (int i = 0; i < numNeighbors - 1; i++) {
+                int from = neighborIds[i];
+                double toMiddle = arcWeights[neighborArcs[i]];
+                double limit = 0.0;
+                for (int j = i + 1; j < numNeighbors; j++) {
+                    limit = Math.max(limit, toMiddle + arcWeights[neighborArcs[j]]);
+                }
+                witnessSearch(from, v, limit, i + 1,
+                        simulate ? SIMULATION_SETTLE_LIMIT : CONTRACTION_SETTLE_LIMIT);
+                for (int j = i + 1; j < numNeighbors; j++) {
+                    int to = neighborIds[j];
+                    double through = toMiddle + arcWeights[neighborArcs[j]];
+                    if (witness.cost(0, to) > through) {
+                        shortcuts++;
+                        if (!simulate) {
+                            addShortcut(from, to, through, v, neighborArcs[i], neighborArcs[j]);
+                        }
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        // Lists v's uncontracted neighbors, keeping only the lightest arc to each.
+        private void gatherNeighbors(int v) {
+            neighborStamp++;
+            numNeighbors = 0;
+            for (int k = 0; k < incidentCounts[v]; k++) {
+                int arc = incident[v][k];
+                int other = otherEnd(arc, v);
+                if (other == v) {
+                    continue;
+                }
+                if (neighborStamps[other] != neighborStamp) {
+                    neighborStamps[other] = neighborStamp;
+                    neighborIds[numNeighbors] = other;
+                    neighborArcs[numNeighbors] = arc;
+                    neighborSlots[other] = numNeighbors;
+                    numNeighbors++;
+                } else if (arcWeights[arc] < arcWeights[neighborArcs[neighborSlots[other]]]) {
+                    neighborArcs[neighborSlots[other]] = arc;
+                }
+            }
+        }
+
+        // Dijkstra's algorithm from the source over uncontracted vertices other than
+        // the excluded one, stopping once the neighbors from index firstTarget on are
+        // all settled, or past the cost limit or the settle limit. Leaves an upper
+        // bound on each reached vertex's distance in the witness scratch.
+        private void witnessSearch(int source, int excluded, double limit, int firstTarget, int settleLimit) {
+            witness.begin();
+            int remainingTargets = numNeighbors - firstTarget;
+            IndexedArrayHeap heap = witness.heaps[0];
+            witness.label(0, source, 0.0, -1);
+            heap.insert(source, 0.0);
+            int settled = 0;
+            while (!heap.isEmpty() && heap.peekMinPriority() <= limit && settled < settleLimit) {
+                int current = heap.removeMin();
+                settled++;
+                if (neighborStamps[current] == neighborStamp && neighborSlots[current] >= firstTarget) {
+                    remainingTargets--;
+                    if (remainingTargets == 0) {
+                        break;
+                    }
+                }
+                double cost = witness.cost(0, current);
+                for (int k = 0; k < incidentCounts[current]; k++) {
+                    int arc = incident[current][k];
+                    int target = otherEnd(arc, current);
+                    if (target == excluded) {
+                        continue;
+                    }
+                    double newCost = cost + arcWeights[arc];
+                    if (newCost < witness.cost(0, target)) {
+                        witness.label(0, target, newCost, arc);
+                        heap.insertOrDecrease(target, newCost);
+                    }
+                }
+            }
+        }
+
+        private void buildUpwardArcs(int numIds) {
+            upOffsets = new int[numIds + 1];
+            for (int arc = 0; arc < numArcs; arc++) {
+                upOffsets[lowerEnd(arc) + 1]++;
+            }
+            for (int v = 0; v < numIds; v++) {
+                upOffsets[v + 1] += upOffsets[v];
+            }
+            upArcs = new int[numArcs];
+            upHeads = new int[numArcs];
+            int[] next = Arrays.copyOf(upOffsets, numIds);
+            for (int arc = 0; arc < numArcs; arc++) {
+                int lower = lowerEnd(arc);
+                upArcs[next[lower]] = arc;
+                upHeads[next[lower]++] = otherEnd(arc, lower);
+            }
+        }
+
+        // Returns the ids of the original edges on a shortest path from the start to
+        // the end, in order.
+        private int[] findPath(int startId, int endId, SearchStats stats) {
+            QueryScratch query = scratch.get();
+            query.begin();
+            query.label(0, startId, 0.0, -1);
+            query.heaps[0].insert(startId, 0.0);
+            query.label(1, endId, 0.0, -1);
+            query.heaps[1].insert(endId, 0.0);
+
+            // Each side stops once nothing it still has queued can beat the best
+            // meeting vertex, the highest-ranked vertex on the path.
+            double best = Double.POSITIVE_INFINITY;
+            int meeting = -1;
+            long settled = 0;
+            long relaxed = 0;
+            while (true) {
+                IndexedArrayHeap forward = query.heaps[0];
+                IndexedArrayHeap backward = query.heaps[1];
+                boolean forwardActive = !forward.isEmpty() && forward.peekMinPriority() < best;
+                boolean backwardActive = !backward.isEmpty() && backward.peekMinPriority() < best;
+                if (!forwardActive && !backwardActive) {
+                    break;
+                }
+                int side = forwardActive
+                        && (!backwardActive || forward.peekMinPriority() <= backward.peekMinPriority()) ? 0 : 1;
+                int current = query.heaps[side].removeMin();
+                settled++;
+                double cost = query.cost(side, current);
+                double through = cost + query.cost(1 - side, current);
+                if (through < best) {
+                    best = through;
+                    meeting = current;
+                }
+                for (int k = upOffsets[current]; k < upOffsets[current + 1]; k++) {
+                    int head = upHeads[k];
+                    double newCost = cost + arcWeights[upArcs[k]];
+                    if (newCost < query.cost(side, head)) {
+                        query.label(side, head, newCost, upArcs[k]);
+                        query.heaps[side].insertOrDecrease(head, newCost);
+                        relaxed++;
+                    }
+                }
+            }
+            if (stats != null) {
+                stats.addSearch(settled, relaxed, settled + query.heaps[0].size() + query.heaps[1].size(),
+                        Math.max(query.heaps[0].peakSize(), query.heaps[1].peakSize()));
+            }
+            if (meeting == -1) {
+                throw new NoPathExistsException();
+            }
+
+            // The forward half is walked from the meeting vertex back to the start, so
+            // its arcs are collected first and unpacked in reverse.
+            IntList path = new IntList();
+            IntList forwardArcs = new IntList();
+            for (int v = meeting; v != startId; v = otherEnd(query.parentArc(0, v), v)) {
+                forwardArcs.add(query.parentArc(0, v));
+            }
+            int from = startId;
+            for (int i = forwardArcs.size - 1; i >= 0; i--) {
+                int arc = forwardArcs.ids[i];
+                unpack(arc, from, path);
+                from = otherEnd(arc, from);
+            }
+            for (int v = meeting; v != endId; ) {
+                int arc = query.parentArc(1, v);
+                unpack(arc, v, path);
+                v = otherEnd(arc, v);
+            }
+            return Arrays.copyOf(path.ids, path.size);
+        }
+
+        // Appends the original edges behind the given arc, walked starting from the
+        // given endpoint. Shortcuts are expanded with an explicit stack, pushing the
+        // half to walk second before the half to walk first.
+        private void unpack(int arc, int from, IntList path) {
+            IntList stack = new IntList();
+            stack.add(arc);
+            stack.add(from);
+            while (stack.size > 0) {
+                int start = stack.ids[--stack.size];
+                int current = stack.ids[--stack.size];
+                if (arcEdges[current] != -1) {
+                    path.add(arcEdges[current]);
+                } else if (start == arcTails[current]) {
+                    stack.add(arcSeconds[current]);
+                    stack.add(arcMiddles[current]);
+                    stack.add(arcFirsts[current]);
+                    stack.add(start);
+                } else {
+                    stack.add(arcFirsts[current]);
+                    stack.add(arcMiddles[current]);
+                    stack.add(arcSeconds[current]);
+                    stack.add(start);
+                }
+            }
+        }
+
+        // Adds a shortcut unless the two vertices are already joined by an arc that is
+        // no heavier. A heavier arc between them is detached from both, so at most
+        // one arc joins any pair of uncontracted vertices; it is kept in the arc
+        // arrays, since shortcuts added earlier may unpack through it.
+        private void addShortcut(int tail, int head, double weight, int middle, int first, int second) {
+            for (int k = 0; k < incidentCounts[tail]; k++) {
+                int arc = incident[tail][k];
+                if (otherEnd(arc, tail) == head) {
+                    if (arcWeights[arc] <= weight) {
+                        return;
+                    }
+                    removeIncident(tail, arc);
+                    removeIncident(head, arc);
+                    break;
+                }
+            }
+            addArc(tail, head, weight, -1, middle, first, second);
+        }
+
+        private void addArc(int tail, int head, double weight, int edgeId, int middle, int first, int second) {
+            if (numArcs == arcTails.length) {
+                int capacity = 2 * numArcs;
+                arcTails = Arrays.copyOf(arcTails, capacity);
+                arcHeads = Arrays.copyOf(arcHeads, capacity);
+                arcWeights = Arrays.copyOf(arcWeights, capacity);
+                arcEdges = Arrays.copyOf(arcEdges, capacity);
+                arcMiddles = Arrays.copyOf(arcMiddles, capacity);
+                arcFirsts = Arrays.copyOf(arcFirsts, capacity);
+                arcSeconds = Arrays.copyOf(arcSeconds, capacity);
+            }
+            arcTails[numArcs] = tail;
+            arcHeads[numArcs] = head;
+            arcWeights[numArcs] = weight;
+            arcEdges[numArcs] = edgeId;
+            arcMiddles[numArcs] = middle;
+            arcFirsts[numArcs] = first;
+            arcSeconds[numArcs] = second;
+            addIncident(tail, numArcs);
+            addIncident(head, numArcs);
+            numArcs++;
+        }
+
+        private void addIncident(int v, int arc) {
+            if (incidentCounts[v] == incident[v].length) {
+                incident[v] = Arrays.copyOf(incident[v], 2 * incidentCounts[v]);
+            }
+            incident[v][incidentCounts[v]++] = arc;
+        }
+
+        private void removeIncident(int v, int arc) {
+            for (int k = 0; k < incidentCounts[v]; k++) {
+                if (incident[v][k] == arc) {
+                    incident[v][k] = incident[v][--incidentCounts[v]];
+                    return;
+                }
+            }
+        }
+
+        private int otherEnd(int arc, int v) {
+            return arcTails[arc] == v ? arcHeads[arc] : arcTails[arc];
+        }
+
+        private int lowerEnd(int arc) {
+            return ranks[arcTails[arc]] < ranks[arcHeads[arc]] ? arcTails[arc] : arcHeads[arc];
+        }
+    }
+
+    /**
+     * Boruvka's minimum spanning forest algorithm, run on the common fork/join pool.
+     *
+     * Each round has two parallel phases. The first scans chunks of the edges still
+     * in play and offers each one to the components at both of its ends, keeping
+     * the lightest offer per component with a compare-and-set. The second walks the
+     * components and merges each with the one across its lightest edge in a
+     * ConcurrentDisjointSet. Ties are broken by edge id, so the chosen edges never
+     * form a cycle and every successful merge adds exactly one tree edge. Every
+     * round at least halves the number of components that still have outgoing edges.
+     */
+    private static class Boruvka {
+        // Ranges at most this long are handled by a single task.
+        private static final int CHUNK_SIZE = 4096;
+
+        private final int numVertices;
+        private final IntBuffer edgeSrc;
+        private final IntBuffer edgeDst;
+        private final DoubleBuffer weights;
+        private final ConcurrentDisjointSet components;
+
+        // cheapest[root] is the lightest edge offered to that component this round,
+        // or -1. chosen[e] is set by the one merge that adds edge e to the tree.
+        private final AtomicIntegerArray cheapest;
+        private final boolean[] chosen;
+
+        // The edges still joining two different components, as of the last round.
+        // Phase one overwrites the ones found to be internal with -1.
+        private int[] live;
+        private int numLive;
+
+        private Boruvka(int numVertices, int numEdges, IntBuffer edgeSrc, IntBuffer edgeDst,
+                DoubleBuffer weights) {
+            this.numVertices = numVertices;
+            this.edgeSrc = edgeSrc;
+            this.edgeDst = edgeDst;
+            this.weights = weights;
+            this.components = new ConcurrentDisjointSet(numVertices);
+            for (int id = 0; id < numVertices; id++) {
+                components.makeSet(id);
+            }
+            this.cheapest = new AtomicIntegerArray(numVertices);
+            for (int id = 0; id < numVertices; id++) {
+                cheapest.set(id, -1);
+            }
+            this.chosen = new boolean[numEdges];
+            this.live = new int[numEdges];
+            for (int e = 0; e < live.length; e++) {
+                live[e] = e;
+            }
+            this.numLive = live.length;
+        }
+
+        // Returns the ids of the edges in the forest.
+        private IntList run(SearchStats stats) {
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            IntList tree = new IntList();
+            long unionFindOperations = numVertices;
+            while (numLive > 0 && tree.size < numVertices - 1) {
+                // Two finds per live edge while offering, then one union per merge.
+                unionFindOperations += 2L * numLive;
+                pool.invoke(new Phase(true, 0, numLive));
+                pool.invoke(new Phase(false, 0, numVertices));
+
+                int kept = 0;
+                for (int i = 0; i < numLive; i++) {
+                    int e = live[i];
+                    if (e == -1) {
+                        continue;
+                    }
+                    if (chosen[e]) {
+                        tree.add(e);
+                    } else {
+                        live[kept++] = e;
+                    }
+                }
+                numLive = kept;
+            }
+            if (stats != null) {
+                stats.unionFindOperations += unionFindOperations + tree.size;
+            }
+            return tree;
+        }
+
+        // Offers edge e to the component at the given root, unless that component
+        // already has a lighter one.
+        private void offer(int root, int e) {
+            while (true) {
+                int current = cheapest.get(root);
+                if (current != -1 && !lighter(e, current)) {
+                    return;
+                }
+                if (cheapest.compareAndSet(root, current, e)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean lighter(int e1, int e2) {
+            return weights.get(e1) < weights.get(e2) || (weights.get(e1) == weights.get(e2) && e1 < e2);
+        }
+
+        // One phase of a round over the range [start, end): live edge slots when
+        // offering, vertex ids when merging.
+        @SuppressWarnings("serial")
+        private class Phase extends RecursiveAction {
+            private final boolean offering;
+            private final int start;
+            private final int end;
+
+            private Phase(boolean offering, int start, int end) {
+                this.offering = offering;
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            protected void compute() {
+                if (end - start > CHUNK_SIZE) {
+                    int middle = (start + end) >>> 1;
+                    invokeAll(new Phase(offering, start, middle), new Phase(offering, middle, end));
+                } else if (offering) {
+                    offerEdges();
+                } else {
+                    mergeComponents();
+                }
+            }
+
+            private void offerEdges() {
+                for (int i = start; i < end; i++) {
+                    int e = live[i];
+                    int root1 = components.findSet(edgeSrc.get(e));
+                    int root2 = components.findSet(edgeDst.get(e));
+                    if (root1 == root2) {
+                        live[i] = -1;
+                    } else {
+                        offer(root1, e);
+                        offer(root2, e);
+                    }
+                }
+            }
+
+            private void mergeComponents() {
+                for (int root = start; root < end; root++) {
+                    int e = cheapest.get(root);
+                    if (e != -1) {
+                        cheapest.set(root, -1);
+                        if (components.unionIfDisjoint(edgeSrc.get(e), edgeDst.get(e))) {
+                            chosen[e] = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits edge-list text into lines of fields, one byte at a time, so a line may
+     * straddle any number of buffer refills. Fields are collected as raw bytes and
+     * decoded as UTF-8 only once complete.
+     */
+    private static class EdgeListParser {
+        private static final int CHUNK_SIZE = 1 << 16;
+        private static final int NUM_FIELDS = 3;
+
+        private final String[] fields = new String[NUM_FIELDS];
+        private byte[] token = new byte[64];
+        private int tokenLength = 0;
+        private int numFields = 0;
+        private boolean comment = false;
+        private long lineNumber = 1;
+        private long fieldsLine;
+
+        // Takes the next byte of text, and returns true if it completed a line
+        // of fields that addTo should now consume.
+        private boolean accept(byte b) throws IOException {
+            if (b == '\n' || b == '\r') {
+                endToken();
+                boolean complete = numFields > 0 && !comment;
+                if (complete && numFields != NUM_FIELDS) {
+                    throw new IOException("line " + lineNumber + ": expected source, destination and weight");
+                }
+                comment = false;
+                fieldsLine = lineNumber;
+                if (b == '\n') {
+                    lineNumber++;
+                }
+                if (!complete) {
+                    numFields = 0;
+                }
+                return complete;
+            }
+            if (comment) {
+                return false;
+            }
+            if (b == ' ' || b == '\t' || b == ',') {
+                endToken();
+            } else if (b == '#' && numFields == 0 && tokenLength == 0) {
+                comment = true;
+            } else {
+                if (tokenLength == token.length) {
+                    token = Arrays.copyOf(token, 2 * tokenLength);
+                }
+                token[tokenLength++] = b;
+            }
+            return false;
+        }
+
+        private <V, E extends Edge<V> & Comparable<E>> void addTo(
+                Builder<V, E> builder, Function<String, ? extends V> vertexParser) throws IOException {
+            double weight;
+            try {
+                weight = Double.parseDouble(fields[2]);
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + fieldsLine + ": bad weight " + fields[2], e);
+            }
+            builder.addEdge(vertexParser.apply(fields[0]), vertexParser.apply(fields[1]), weight);
+            numFields = 0;
+        }
+
+        private void endToken() throws IOException {
+            if (tokenLength > 0) {
+                if (numFields == NUM_FIELDS) {
+                    throw new IOException("line " + lineNumber + ": expected source, destination and weight");
+                }
+                fields[numFields++] = new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+                tokenLength = 0;
+            }
+        }
+    }
+
+    /**
+     * The layout of graph snapshot files, a buffered little-endian writer for them,
+     * and the mapping they are read through. After a 16-byte header of magic number,
+     * version, vertex count and edge count come the edge weights, the offsets, edge
+     * ids and adjacent ids of the adjacency index, the edge sources and destinations,
+     * the offsets of each vertex key, the key hash table, and the concatenated key
+     * bytes. The weights come first so that they start 8-byte aligned.
+     *
+     * The key hash table has tableSize(vertex count) slots, probed linearly from
+     * hash(key). Each slot holds a vertex id plus one, or zero if it is empty.
+     */
+    private static class Snapshot {
+        private static final int MAGIC = 0x47524150;
+        private static final int VERSION = 2;
+        private static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+        // Every section is mapped as one buffer, so none may exceed 2 GB. The edge
+        // id and adjacent id sections are the largest for edges, and the hash table
+        // for vertices.
+        private static final int MAX_EDGES = Integer.MAX_VALUE / (2 * Integer.BYTES);
+        private static final int MAX_VERTICES = 1 << 27;
+
+        // Writes go through a buffer of CHUNK_SIZE bytes.
+        private static final int CHUNK_SIZE = 1 << 20;
+
+        // Returns the number of key hash table slots for the given number of
+        // vertices: the smallest power of two at least twice that, so that probes
+        // stay short and an empty slot always ends them.
+        private static int tableSize(int numVertices) {
+            return Math.max(2, Integer.highestOneBit(Math.max(1, 2 * numVertices - 1)) << 1);
+        }
+
+        // The hash of an encoded vertex key. It is part of the file format, so it
+        // must never change.
+        private static int hash(byte[] key) {
+            int hash = Arrays.hashCode(key);
+            return hash ^ (hash >>> 16);
+        }
+
+        // Returns true if the offsets start at 0, never decrease, and end at the
+        // given total.
+        private static boolean isOffsets(IntBuffer offsets, long total) {
+            int last = offsets.capacity() - 1;
+            if (offsets.get(0) != 0 || offsets.get(last) != total) {
+                return false;
+            }
+            for (int i = 1; i <= last; i++) {
+                if (offsets.get(i) < offsets.get(i - 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Returns true if every id is in 0 through bound - 1.
+        private static boolean isIds(IntBuffer ids, int bound) {
+            for (int i = 0; i < ids.capacity(); i++) {
+                int id = ids.get(i);
+                if (id < 0 || id >= bound) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Maps the given snapshot and returns read-only views of its sections,
+        // checking only the header and that the sections fit the file exactly.
+        private static Sections map(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < HEADER_BYTES) {
+                    throw new IOException("not a graph snapshot: " + file);
+                }
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != VERSION) {
+                    throw new IOException("not a graph snapshot: " + file);
+                }
+                int numVertices = header.getInt(2 * Integer.BYTES);
+                int numEdges = header.getInt(3 * Integer.BYTES);
+                if (numVertices < 0 || numVertices > MAX_VERTICES || numEdges < 0 || numEdges > MAX_EDGES) {
+                    throw new IOException("graph snapshot is corrupt: " + file);
+                }
+                long arrayBytes = Double.BYTES * (long) numEdges
+                        + Integer.BYTES * (2L * (numVertices + 1L) + 6L * numEdges + tableSize(numVertices));
+                long keyBytes = size - HEADER_BYTES - arrayBytes;
+                if (keyBytes < 0 || keyBytes > Integer.MAX_VALUE) {
+                    throw new IOException("graph snapshot is corrupt: " + file);
+                }
+
+                Sections sections = new Sections(channel);
+                sections.weights = sections.next((long) Double.BYTES * numEdges).asDoubleBuffer();
+                sections.offsets = sections.nextInts(numVertices + 1);
+                sections.edgeIds = sections.nextInts(2 * numEdges);
+                sections.adjacent = sections.nextInts(2 * numEdges);
+                sections.edgeSrc = sections.nextInts(numEdges);
+                sections.edgeDst = sections.nextInts(numEdges);
+                sections.keyOffsets = sections.nextInts(numVertices + 1);
+                sections.slots = sections.nextInts(tableSize(numVertices));
+                sections.keyBytes = sections.next(size - sections.position);
+                if (sections.offsets.get(0) != 0 || sections.offsets.get(numVertices) != 2 * numEdges
+                        || sections.keyOffsets.get(0) != 0
+                        || sections.keyOffsets.get(numVertices) != sections.keyBytes.capacity()) {
+                    throw new IOException("graph snapshot is corrupt: " + file);
+                }
+                return sections;
+            }
+        }
+
+        // Read-only views of the sections of a mapped snapshot. A mapping stays
+        // valid after its channel is closed.
+        private static class Sections {
+            private final FileChannel channel;
+            private long position = HEADER_BYTES;
+            private DoubleBuffer weights;
+            private IntBuffer offsets;
+            private IntBuffer edgeIds;
+            private IntBuffer adjacent;
+            private IntBuffer edgeSrc;
+            private IntBuffer edgeDst;
+            private IntBuffer keyOffsets;
+            private IntBuffer slots;
+            private ByteBuffer keyBytes;
+
+            private Sections(FileChannel channel) {
+                this.channel = channel;
+            }
+
+            // Maps the next section of the file, of the given number of bytes.
+            private ByteBuffer next(long bytes) throws IOException {
+                ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                position += bytes;
+                return section;
+            }
+
+            private IntBuffer nextInts(int count) throws IOException {
+                return next((long) Integer.BYTES * count).asIntBuffer();
+            }
+        }
+
+        private static class Writer {
+            private final FileChannel channel;
+            private final ByteBuffer buffer;
+
+            private Writer(FileChannel channel) {
+                this.channel = channel;
+                this.buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            private void putInt(int value) throws IOException {
+                ensureRoom(Integer.BYTES);
+                buffer.putInt(value);
+            }
+
+            // Writes values.get(0) through values.get(length - 1), reading through a
+            // duplicate so that the position of values is left alone.
+            private void putInts(IntBuffer values, int length) throws IOException {
+                IntBuffer source = values.duplicate();
+                source.position(0);
+                source.limit(length);
+                while (source.hasRemaining()) {
+                    ensureRoom(Integer.BYTES);
+                    int count = Math.min(source.remaining(), buffer.remaining() / Integer.BYTES);
+                    IntBuffer chunk = source.slice();
+                    chunk.limit(count);
+                    buffer.asIntBuffer().put(chunk);
+                    buffer.position(buffer.position() + count * Integer.BYTES);
+                    source.position(source.position() + count);
+                }
+            }
+
+            private void putDoubles(DoubleBuffer values, int length) throws IOException {
+                DoubleBuffer source = values.duplicate();
+                source.position(0);
+                source.limit(length);
+                while (source.hasRemaining()) {
+                    ensureRoom(Double.BYTES);
+                    int count = Math.min(source.remaining(), buffer.remaining() / Double.BYTES);
+                    DoubleBuffer chunk = source.slice();
+                    chunk.limit(count);
+                    buffer.asDoubleBuffer().put(chunk);
+                    buffer.position(buffer.position() + count * Double.BYTES);
+                    source.position(source.position() + count);
+                }
+            }
+
+            private void putBytes(byte[] values) throws IOException {
+                for (int start = 0; start < values.length; ) {
+                    ensureRoom(1);
+                    int count = Math.min(values.length - start, buffer.remaining());
+                    buffer.put(values, start, count);
+                    start += count;
+                }
+            }
+
+            private void ensureRoom(int bytes) throws IOException {
+                if (buffer.remaining() < bytes) {
+                    flush();
+                }
+            }
+
+            private void flush() throws IOException {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    // Maps between the vertices of a graph and their dense ids.
+    private interface VertexTable<V> {
+        int size();
+
+        V get(int id);
+
+        // Returns the id of the given vertex, or -1 if it is not in the graph.
+        int find(V vertex);
+    }
+
+    // The vertex table of a graph assembled in memory: the vertices in id order,
+    // and a dictionary from each vertex back to its id.
+    private static class InternedVertices<V> implements VertexTable<V> {
+        private final ChainedHashDictionary<V, Integer> ids;
+        private final V[] vertices;
+
+        private InternedVertices(ChainedHashDictionary<V, Integer> ids, V[] vertices) {
+            this.ids = ids;
+            this.vertices = vertices;
+        }
+
+        @Override
+        public int size() {
+            return vertices.length;
+        }
+
+        @Override
+        public V get(int id) {
+            return vertices[id];
+        }
+
+        @Override
+        public int find(V vertex) {
+            return ids.containsKey(vertex) ? ids.get(vertex) : -1;
+        }
+    }
+
+    // The vertex table of a graph read from a snapshot. A vertex is found by
+    // hashing its encoded key into the snapshot's table and comparing key bytes in
+    // the mapping, so finding ids decodes nothing. A vertex is decoded the first
+    // time it is asked for and kept, claimed with compareAndSet like the graph's
+    // created edges, so every call returns the same object; the array keeping them
+    // is itself only allocated on first use.
+    private static class MappedVertices<V> implements VertexTable<V> {
+        private final VertexCodec<V> codec;
+        private final IntBuffer keyOffsets;
+        private final ByteBuffer keyBytes;
+        private final IntBuffer slots;
+        private volatile AtomicReferenceArray<V> decoded;
+
+        private MappedVertices(VertexCodec<V> codec, IntBuffer keyOffsets, ByteBuffer keyBytes,
+                IntBuffer slots) {
+            this.codec = codec;
+            this.keyOffsets = keyOffsets;
+            this.keyBytes = keyBytes;
+            this.slots = slots;
+        }
+
+        @Override
+        public int size() {
+            return keyOffsets.capacity() - 1;
+        }
+
+        @Override
+        public V get(int id) {
+            AtomicReferenceArray<V> cache = decoded;
+            if (cache == null) {
+                cache = allocateDecoded();
+            }
+            V vertex = cache.get(id);
+            if (vertex == null) {
+                V made = codec.decode(key(id));
+                vertex = cache.compareAndSet(id, null, made) ? made : cache.get(id);
+            }
+            return vertex;
+        }
+
+        private synchronized AtomicReferenceArray<V> allocateDecoded() {
+            if (decoded == null) {
+                decoded = new AtomicReferenceArray<>(size());
+            }
+            return decoded;
+        }
+
+        @Override
+        public int find(V vertex) {
+            return findKey(codec.encode(vertex));
+        }
+
+        // Returns the id of the vertex with the given key, or -1 if there is none.
+        // The probe stops after a full lap, so even a corrupt table cannot loop.
+        private int findKey(byte[] key) {
+            int mask = slots.capacity() - 1;
+            int slot = Snapshot.hash(key) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                int id = slots.get(slot) - 1;
+                if (id < 0 || hasKey(id, key)) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private boolean hasKey(int id, byte[] key) {
+            int start = keyOffsets.get(id);
+            if (keyOffsets.get(id + 1) - start != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (keyBytes.get(start + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Returns a copy of the encoded key of the given vertex.
+        private byte[] key(int id) {
+            int start = keyOffsets.get(id);
+            byte[] key = new byte[keyOffsets.get(id + 1) - start];
+            ByteBuffer view = keyBytes.duplicate();
+            view.position(start);
+            view.get(key);
+            return key;
+        }
+    }
+
+    /**
+     * A minimum spanning forest over the vertex ids, kept in a link-cut tree so that
+     * it can be updated one added edge at a time.
+     *
+     * Every tree edge is a node of its own, spliced between the nodes of its two
+     * endpoints, so the heaviest edge on a path is found as a path aggregate over
+     * node weights. Vertex nodes weigh negative infinity and never win. The forest
+     * has at most numVertices - 1 edges, and an edge that is swapped out hands its
+     * node straight to the edge that replaces it, so the edge nodes are allocated
+     * in order and never freed.
+     *
+     * Each tree path is stored as a splay tree ordered from the path's root end,
+     * linked to the rest of the tree by a parent pointer from the splay root.
+     * Rerooting reverses a path by flipping a flag, pushed down to the children
+     * lazily. Every operation takes amortized O(log n) time.
+     */
+    private static class DynamicForest {
+        private final int numVertices;
+
+        // Splay-tree links, or -1. A splay root's parent is the node its path hangs
+        // from, which does not list it as a child.
+        private final int[] left;
+        private final int[] right;
+        private final int[] parent;
+        private final boolean[] flipped;
+
+        // weight[x] is the node's own weight, and maxNode[x] the heaviest node in
+        // the splay subtree under x.
+        private final double[] weight;
+        private final int[] maxNode;
+
+        // For the edge node numVertices + k: the id of the edge it holds and the
+        // ids of its endpoints.
+        private final int[] slotEdge;
+        private final int[] slotSrc;
+        private final int[] slotDst;
+        private int numSlots;
+
+        // The ancestors of a node being splayed, so their flips can be pushed down
+        // from the top.
+        private final int[] stack;
+
+        private DynamicForest(int numVertices) {
+            this.numVertices = numVertices;
+            int numNodes = numVertices + Math.max(numVertices - 1, 0);
+            left = new int[numNodes];
+            right = new int[numNodes];
+            parent = new int[numNodes];
+            flipped = new boolean[numNodes];
+            weight = new double[numNodes];
+            maxNode = new int[numNodes];
+            for (int x = 0; x < numNodes; x++) {
+                left[x] = -1;
+                right[x] = -1;
+                parent[x] = -1;
+                weight[x] = Double.NEGATIVE_INFINITY;
+                maxNode[x] = x;
+            }
+            slotEdge = new int[numNodes - numVertices];
+            slotSrc = new int[numNodes - numVertices];
+            slotDst = new int[numNodes - numVertices];
+            stack = new int[numNodes];
+        }
+
+        // Offers the edge with the given id, endpoints and weight to the forest. It
+        // is linked in if it joins two trees, and otherwise replaces the heaviest
+        // edge on the path between its endpoints if it is lighter than that edge.
+        private void insert(int edgeId, int src, int dst, double w) {
+            if (src == dst) {
+                return;
+            }
+            int node;
+            if (findRoot(src) != findRoot(dst)) {
+                node = numVertices + numSlots;
+                numSlots++;
+            } else {
+                makeRoot(src);
+                access(dst);
+                node = maxNode[dst];
+                if (!(weight[node] > w)) {
+                    return;
+                }
+                int k = node - numVertices;
+                cut(slotSrc[k], node);
+                cut(node, slotDst[k]);
+            }
+            int k = node - numVertices;
+            slotEdge[k] = edgeId;
+            slotSrc[k] = src;
+            slotDst[k] = dst;
+            weight[node] = w;
+            maxNode[node] = node;
+            link(src, node);
+            link(node, dst);
+        }
+
+        // Returns the ids of the edges currently in the forest.
+        private IntList edgeIds() {
+            IntList ids = new IntList();
+            for (int k = 0; k < numSlots; k++) {
+                ids.add(slotEdge[k]);
+            }
+            return ids;
+        }
+
+        private boolean isSplayRoot(int x) {
+            int p = parent[x];
+            return p == -1 || (left[p] != x && right[p] != x);
+        }
+
+        private void pushDown(int x) {
+            if (flipped[x]) {
+                int l = left[x];
+                left[x] = right[x];
+                right[x] = l;
+                if (left[x] != -1) {
+                    flipped[left[x]] ^= true;
+                }
+                if (right[x] != -1) {
+                    flipped[right[x]] ^= true;
+                }
+                flipped[x] = false;
+            }
+        }
+
+        private void update(int x) {
+            int max = x;
+            if (left[x] != -1 && weight[maxNode[left[x]]] > weight[max]) {
+                max = maxNode[left[x]];
+            }
+            if (right[x] != -1 && weight[maxNode[right[x]]] > weight[max]) {
+                max = maxNode[right[x]];
+            }
+            maxNode[x] = max;
+        }
+
+        private void rotate(int x) {
+            int p = parent[x];
+            int g = parent[p];
+            if (!isSplayRoot(p)) {
+                if (left[g] == p) {
+                    left[g] = x;
+                } else {
+                    right[g] = x;
+                }
+            }
+            parent[x] = g;
+            if (left[p] == x) {
+                left[p] = right[x];
+                if (right[x] != -1) {
+                    parent[right[x]] = p;
+                }
+                right[x] = p;
+            } else {
+                right[p] = left[x];
+                if (left[x] != -1) {
+                    parent[left[x]] = p;
+                }
+                left[x] = p;
+            }
+            parent[p] = x;
+            update(p);
+            update(x);
+        }
+
+        private void splay(int x) {
+            int depth = 0;
+            stack[depth++] = x;
+            for (int y = x; !isSplayRoot(y); y = parent[y]) {
+                stack[depth++] = parent[y];
+            }
+            while (depth > 0) {
+                pushDown(stack[--depth]);
+            }
+            while (!isSplayRoot(x)) {
+                int p = parent[x];
+                if (!isSplayRoot(p)) {
+                    int g = parent[p];
+                    rotate((left[g] == p) == (left[p] == x) ? p : x);
+                }
+                rotate(x);
+            }
+        }
+
+        // Makes the path from x's tree root down to x the preferred path, and splays
+        // x to the top of it.
+        private void access(int x) {
+            int last = -1;
+            for (int y = x; y != -1; y = parent[y]) {
+                splay(y);
+                right[y] = last;
+                update(y);
+                last = y;
+            }
+            splay(x);
+        }
+
+        private void makeRoot(int x) {
+            access(x);
+            flipped[x] ^= true;
+        }
+
+        private int findRoot(int x) {
+            access(x);
+            pushDown(x);
+            while (left[x] != -1) {
+                x = left[x];
+                pushDown(x);
+            }
+            splay(x);
+            return x;
+        }
+
+        // Precondition: x and y are in different trees.
+        private void link(int x, int y) {
+            makeRoot(x);
+            parent[x] = y;
+        }
+
+        // Precondition: x and y are joined by a tree edge.
+        private void cut(int x, int y) {
+            makeRoot(x);
+            access(y);
+            left[y] = -1;
+            parent[x] = -1;
+            update(y);
+        }
+    }
+
+    /**
+     * The buffers one Dijkstra search works in, so a thread running many searches
+     * can reuse them instead of allocating new ones each time.
+     */
+    private static class SearchScratch {
+        private final double[] costs;
+        private final int[] parentEdges;
+        private final BitSet visited;
+        private final IndexedArrayHeap heap;
+
+        private SearchScratch(int numIds) {
+            costs = new double[numIds];
+            parentEdges = new int[numIds];
+            visited = new BitSet(numIds);
+            heap = new IndexedArrayHeap(numIds);
+            reset();
+        }
+
+        private void reset() {
+            Arrays.fill(costs, Double.POSITIVE_INFINITY);
+            Arrays.fill(parentEdges, -1);
+            visited.clear();
+            heap.clear();
+        }
+    }
+
+    /**
+     * Labels for a forward and a backward search over vertex ids. Labels are cleared
+     * in constant time between searches by moving to a new stamp.
+     */
+    private static class QueryScratch {
+        private final double[][] costs;
+        private final int[][] parentArcs;
+        private final int[][] stamps;
+        private final IndexedArrayHeap[] heaps;
+        private int stamp;
+
+        private QueryScratch(int numIds) {
+            costs = new double[2][numIds];
+            parentArcs = new int[2][numIds];
+            stamps = new int[2][numIds];
+            heaps = new IndexedArrayHeap[] {new IndexedArrayHeap(numIds), new IndexedArrayHeap(numIds)};
+            stamp = 0;
+        }
+
+        private void begin() {
+            heaps[0].clear();
+            heaps[1].clear();
+            if (stamp == Integer.MAX_VALUE) {
+                Arrays.fill(stamps[0], 0);
+                Arrays.fill(stamps[1], 0);
+                stamp = 0;
+            }
+            stamp++;
+        }
+
+        private double cost(int side, int v) {
+            return stamps[side][v] == stamp ? costs[side][v] : Double.POSITIVE_INFINITY;
+        }
+
+        private int parentArc(int side, int v) {
+            return parentArcs[side][v];
+        }
+
+        private void label(int side, int v, double cost, int parentArc) {
+            stamps[side][v] = stamp;
+            costs[side][v] = cost;
+            parentArcs[side][v] = parentArc;
+        }
+    }
+
+    /**
+     * A growable list of ints.
+     */
+    private static class IntList {
+        private int[] ids = new int[16];
+        private int size = 0;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * Assembles a Graph incrementally. Vertices are interned to dense ids as they
+     * are added, so each edge is validated with two hash lookups instead of a scan
+     * of the vertex list.
+     *
+     * A builder may be used to build only one graph.
+     */
+    public static class Builder<V, E extends Edge<V> & Comparable<E>> {
+        private ChainedHashDictionary<V, Integer> vertexIds;
+        private V[] vertexTable;
+        private int numVertices;
+        private E[] edgeTable;
+        private int[] edgeSrc;
+        private int[] edgeDst;
+        private double[] edgeWeight;
+        private int numEdges;
+        private EdgeFactory<V, E> edgeFactory;
+
+        private Builder(int expectedVertices, int expectedEdges) {
+            vertexIds = new ChainedHashDictionary<>();
+            vertexTable = makeArrayOfT(Math.max(expectedVertices, 1));
+            edgeSrc = new int[Math.max(expectedEdges, 1)];
+            edgeDst = new int[edgeSrc.length];
+            edgeWeight = new double[edgeSrc.length];
+        }
+
+        /**
+         * Adds the given vertex. Adding a vertex that is already present has no effect.
+         *
+         * @throws IllegalStateException  if this builder has already built its graph
+         */
+        public Builder<V, E> addVertex(V vertex) {
+            checkNotBuilt();
+            intern(vertex);
+            return this;
+        }
+
+        /**
+         * Adds the given edge.
+         *
+         * @throws IllegalArgumentException  if the edge has a negative or NaN weight
+         * @throws IllegalArgumentException  if the edge connects to a vertex that has
+         *                                   not been added yet
+         * @throws IllegalStateException     if this builder has already built its graph
+         */
+        public Builder<V, E> addEdge(E edge) {
+            checkNotBuilt();
+            V vertex1 = edge.getVertex1();
+            V vertex2 = edge.getVertex2();
+            double weight = edge.getWeight();
+            if (!(weight >= 0) || !vertexIds.containsKey(vertex1)
+                    || !vertexIds.containsKey(vertex2)) {
+                throw new IllegalArgumentException();
+            }
+            append(edge, vertexIds.get(vertex1), vertexIds.get(vertex2), weight);
+            return this;
+        }
+
+        /**
+         * Adds an edge with the given endpoints and weight without creating an edge
+         * object for it; the graph makes one with its edge factory the first time a
+         * result needs it. Either endpoint that has not been added yet is added first.
+         *
+         * @throws IllegalArgumentException  if the weight is negative or NaN
+         * @throws IllegalStateException     if no edge factory has been set, or this
+         *                                   builder has already built its graph
+         */
+        public Builder<V, E> addEdge(V vertex1, V vertex2, double weight) {
+            checkNotBuilt();
+            if (edgeFactory == null) {
+                throw new IllegalStateException();
+            }
+            if (!(weight >= 0)) {
+                throw new IllegalArgumentException();
+            }
+            append(null, intern(vertex1), intern(vertex2), weight);
+            return this;
+        }
+
+        /**
+         * Sets the factory the built graph uses to create the edges added by
+         * addEdge(V, V, double).
+         *
+         * @throws IllegalStateException  if this builder has already built its graph
+         */
+        public Builder<V, E> edgeFactory(EdgeFactory<V, E> factory) {
+            checkNotBuilt();
+            this.edgeFactory = factory;
+            return this;
+        }
+
+        // Returns the id of the given vertex, adding it first if it is new.
+        private int intern(V vertex) {
+            if (vertexIds.containsKey(vertex)) {
+                return vertexIds.get(vertex);
+            }
+            if (numVertices == vertexTable.length) {
+                vertexTable = Arrays.copyOf(vertexTable, 2 * numVertices);
+            }
+            vertexIds.put(vertex, numVertices);
+            vertexTable[numVertices] = vertex;
+            return numVertices++;
+        }
+
+        // Appends an edge, given with its object or with null to leave it to the edge
+        // factory. edgeTable is only allocated once the first edge object arrives, so
+        // a builder fed only primitive edges never holds an array of edge slots.
+        private void append(E edge, int src, int dst, double weight) {
+            if (numEdges == edgeSrc.length) {
+                if (edgeTable != null) {
+                    edgeTable = Arrays.copyOf(edgeTable, 2 * numEdges);
+                }
+                edgeSrc = Arrays.copyOf(edgeSrc, 2 * numEdges);
+                edgeDst = Arrays.copyOf(edgeDst, 2 * numEdges);
+                edgeWeight = Arrays.copyOf(edgeWeight, 2 * numEdges);
+            }
+            if (edge != null && edgeTable == null) {
+                edgeTable = makeArrayOfE(edgeSrc.length);
+            }
+            if (edgeTable != null) {
+                edgeTable[numEdges] = edge;
+            }
+            edgeSrc[numEdges] = src;
+            edgeDst[numEdges] = dst;
+            edgeWeight[numEdges] = weight;
+            numEdges++;
+        }
+
+        /**
+         * Returns a graph containing every vertex and edge added so far.
+         *
+         * @throws IllegalStateException  if this builder has already built its graph
+         */
+        public Graph<V, E> build() {
+            checkNotBuilt();
+            Graph<V, E> graph = new Graph<>(this);
+            vertexIds = null;
+            return graph;
+        }
+
+        private void checkNotBuilt() {
+            if (vertexIds == null) {
+                throw new IllegalStateException();
+            }
+        }
+    }
 }
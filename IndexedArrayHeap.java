@@ -0,0 +1,308 @@
+package datastructures.concrete;
+
+import misc.exceptions.EmptyContainerException;
+
+/**
+ * A 4-heap over the integer ids 0 through capacity - 1, each with a double priority.
+ *
+ * Unlike ArrayHeap, this heap remembers where each id currently sits, so an id's
+ * priority can be lowered in place with decreaseKey instead of inserting a second
+ * copy. Each id is in the heap at most once, and nothing is allocated after the
+ * constructor runs.
+ */
+public class IndexedArrayHeap {
+    private static final int NUM_CHILDREN = 4;
+
+    // heap[i] is the id stored in slot i of the heap, positions[id] is the slot
+    // holding that id (or -1 if it is not in the heap), and priorities[id] is the
+    // id's current priority.
+    private int[] heap;
+    private int[] positions;
+    private double[] priorities;
+    private int size;
+
+    // The largest size since the heap was built or last cleared.
+    private int peakSize;
+
+    /**
+     * Constructs an empty heap able to hold the ids 0 through capacity - 1.
+     */
+    public IndexedArrayHeap(int capacity) {
+        heap = new int[capacity];
+        positions = new int[capacity];
+        priorities = new double[capacity];
+        for (int i = 0; i < capacity; i++) {
+            positions[i] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns the number of distinct ids this heap can hold.
+     */
+    public int capacity() {
+        return positions.length;
+    }
+
+    /**
+     * Returns the number of ids currently in the heap.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the largest number of ids the heap has held at once since it was
+     * constructed, last cleared or last heapified.
+     */
+    public int peakSize() {
+        return peakSize;
+    }
+
+    /**
+     * Returns true if the given id is currently in the heap.
+     *
+     * @throws IllegalArgumentException  if the id is outside 0 through capacity - 1
+     */
+    public boolean contains(int id) {
+        checkId(id);
+        return positions[id] != -1;
+    }
+
+    /**
+     * Returns the current priority of the given id.
+     *
+     * @throws IllegalArgumentException  if the id is not in the heap
+     */
+    public double priorityOf(int id) {
+        if (!contains(id)) {
+            throw new IllegalArgumentException();
+        }
+        return priorities[id];
+    }
+
+    /**
+     * Adds the given id with the given priority.
+     *
+     * @throws IllegalArgumentException  if the id is out of range or already in the heap
+     * @throws IllegalArgumentException  if the priority is NaN
+     */
+    public void insert(int id, double priority) {
+        if (contains(id) || Double.isNaN(priority)) {
+            throw new IllegalArgumentException();
+        }
+        heap[size] = id;
+        positions[id] = size;
+        priorities[id] = priority;
+        size++;
+        if (size > peakSize) {
+            peakSize = size;
+        }
+        percolateUp(size - 1);
+    }
+
+    /**
+     * Lowers the priority of an id that is already in the heap.
+     *
+     * @throws IllegalArgumentException  if the id is not in the heap
+     * @throws IllegalArgumentException  if the new priority is greater than the current one
+     *                                   or is NaN
+     */
+    public void decreaseKey(int id, double priority) {
+        if (!contains(id) || !(priority <= priorities[id])) {
+            throw new IllegalArgumentException();
+        }
+        priorities[id] = priority;
+        percolateUp(positions[id]);
+    }
+
+    /**
+     * Inserts the id if it is absent, or lowers its priority if the given priority
+     * is smaller than its current one. Returns true if the heap changed.
+     *
+     * @throws IllegalArgumentException  if the id is out of range or the priority is NaN
+     */
+    public boolean insertOrDecrease(int id, double priority) {
+        if (Double.isNaN(priority)) {
+            throw new IllegalArgumentException();
+        }
+        if (!contains(id)) {
+            insert(id, priority);
+            return true;
+        }
+        if (priority < priorities[id]) {
+            priorities[id] = priority;
+            percolateUp(positions[id]);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the priority of an id that is already in the heap, moving it up or down
+     * as needed.
+     *
+     * @throws IllegalArgumentException  if the id is not in the heap or the priority is NaN
+     */
+    public void changeKey(int id, double priority) {
+        if (!contains(id) || Double.isNaN(priority)) {
+            throw new IllegalArgumentException();
+        }
+        double old = priorities[id];
+        priorities[id] = priority;
+        if (priority < old) {
+            percolateUp(positions[id]);
+        } else {
+            percolateDown(positions[id]);
+        }
+    }
+
+    /**
+     * Returns the id with the smallest priority without removing it.
+     *
+     * @throws EmptyContainerException  if the heap is empty
+     */
+    public int peekMin() {
+        if (size == 0) {
+            throw new EmptyContainerException();
+        }
+        return heap[0];
+    }
+
+    /**
+     * Returns the smallest priority in the heap.
+     *
+     * @throws EmptyContainerException  if the heap is empty
+     */
+    public double peekMinPriority() {
+        return priorities[peekMin()];
+    }
+
+    /**
+     * Removes and returns the id with the smallest priority.
+     *
+     * @throws EmptyContainerException  if the heap is empty
+     */
+    public int removeMin() {
+        int min = peekMin();
+        size--;
+        positions[min] = -1;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            positions[last] = 0;
+            percolateDown(0);
+        }
+        return min;
+    }
+
+    /**
+     * Removes every id from the heap, so it can be reused for another search.
+     * This costs time proportional to the number of ids still in the heap.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+        peakSize = 0;
+    }
+
+    /**
+     * Replaces the contents of the heap with the ids 0 through priorities.length - 1,
+     * each with its given priority. The heap is built bottom-up in linear time,
+     * rather than the n log n of inserting the ids one at a time.
+     *
+     * @throws IllegalArgumentException  if there are more priorities than the capacity,
+     *                                   or any of them is NaN
+     */
+    public void heapify(double[] priorities) {
+        heapify(priorities, priorities.length);
+    }
+
+    /**
+     * Replaces the contents of the heap with the ids 0 through count - 1, each with
+     * priority priorities[id], like heapify(double[]). Entries of priorities from
+     * count onward are ignored.
+     *
+     * @throws IllegalArgumentException  if count is negative, or more than the capacity
+     *                                   or the number of priorities
+     * @throws IllegalArgumentException  if any of the first count priorities is NaN
+     */
+    public void heapify(double[] priorities, int count) {
+        if (count < 0 || count > positions.length || count > priorities.length) {
+            throw new IllegalArgumentException();
+        }
+        for (int id = 0; id < count; id++) {
+            if (Double.isNaN(priorities[id])) {
+                throw new IllegalArgumentException();
+            }
+        }
+        clear();
+        size = count;
+        peakSize = size;
+        for (int id = 0; id < size; id++) {
+            heap[id] = id;
+            positions[id] = id;
+            this.priorities[id] = priorities[id];
+        }
+        // Sift down every parent slot, starting from the last one.
+        for (int index = Math.floorDiv(size - 2, NUM_CHILDREN); index >= 0; index--) {
+            percolateDown(index);
+        }
+    }
+
+    private void percolateUp(int index) {
+        int id = heap[index];
+        double priority = priorities[id];
+        while (index > 0) {
+            int parent = (index - 1) / NUM_CHILDREN;
+            int parentId = heap[parent];
+            if (priorities[parentId] <= priority) {
+                break;
+            }
+            heap[index] = parentId;
+            positions[parentId] = index;
+            index = parent;
+        }
+        heap[index] = id;
+        positions[id] = index;
+    }
+
+    private void percolateDown(int index) {
+        int id = heap[index];
+        double priority = priorities[id];
+        while (true) {
+            int firstChild = NUM_CHILDREN * index + 1;
+            if (firstChild >= size) {
+                break;
+            }
+            int lastChild = Math.min(firstChild + NUM_CHILDREN, size);
+            int minChild = firstChild;
+            for (int child = firstChild + 1; child < lastChild; child++) {
+                if (priorities[heap[child]] < priorities[heap[minChild]]) {
+                    minChild = child;
+                }
+            }
+            int minChildId = heap[minChild];
+            if (priorities[minChildId] >= priority) {
+                break;
+            }
+            heap[index] = minChildId;
+            positions[minChildId] = index;
+            index = minChild;
+        }
+        heap[index] = id;
+        positions[id] = index;
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= positions.length) {
+            throw new IllegalArgumentException();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package datastructures.concrete;
+
+import datastructures.interfaces.IDisjointSet;
+
+/**
+ * A disjoint set over the dense integer ids 0 through capacity - 1, for callers
+ * that already number their items. It is backed by a single int array allocated
+ * up front, and the int overloads never hash, box or allocate.
+ *
+ * See IDisjointSet for more details.
+ */
+public class IntDisjointSet implements IDisjointSet<Integer> {
+    // Marks an id that has not been made into a set yet.
+    private static final int ABSENT = Integer.MIN_VALUE;
+
+    // A root's slot holds -(rank + 1), where rank bounds the height of its tree;
+    // every other present id's slot holds the index of its parent.
+    private int[] pointers;
+
+    /**
+     * Constructs an empty disjoint set that can hold the ids 0 through capacity - 1.
+     */
+    public IntDisjointSet(int capacity) {
+        pointers = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            pointers[i] = ABSENT;
+        }
+    }
+
+    /**
+     * Returns the number of distinct ids this disjoint set can hold.
+     */
+    public int capacity() {
+        return pointers.length;
+    }
+
+    /**
+     * Creates a new set containing just the given id.
+     *
+     * @throws IllegalArgumentException  if the id is out of range or already in a set
+     */
+    public void makeSet(int id) {
+        if (id < 0 || id >= pointers.length || pointers[id] != ABSENT) {
+            throw new IllegalArgumentException();
+        }
+        pointers[id] = -1;
+    }
+
+    /**
+     * Returns the representative of the set containing the given id.
+     *
+     * @throws IllegalArgumentException  if the id is not in any set
+     */
+    public int findSet(int id) {
+        checkPresent(id);
+        return findRoot(id);
+    }
+
+    /**
+     * Returns the representative of the set containing the given id, like findSet,
+     * but without compressing the path on the way. It only reads, so threads may call
+     * it concurrently while no one changes the set. Union by rank keeps each call
+     * O(log n), and a call after every id has been passed to findSet takes a single step.
+     *
+     * @throws IllegalArgumentException  if the id is not in any set
+     */
+    public int representativeOf(int id) {
+        checkPresent(id);
+        int root = id;
+        while (pointers[root] >= 0) {
+            root = pointers[root];
+        }
+        return root;
+    }
+
+    /**
+     * Merges the sets containing the two ids.
+     *
+     * @throws IllegalArgumentException  if either id is not in a set, or both are
+     *                                   already in the same set
+     */
+    public void union(int id1, int id2) {
+        if (!unionIfDisjoint(id1, id2)) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Merges the sets containing the two ids if they are different, and returns
+     * whether it did. This saves a second pair of finds over calling findSet on both
+     * ids before union.
+     *
+     * @throws IllegalArgumentException  if either id is not in a set
+     */
+    public boolean unionIfDisjoint(int id1, int id2) {
+        checkPresent(id1);
+        checkPresent(id2);
+        int root1 = findRoot(id1);
+        int root2 = findRoot(id2);
+        if (root1 == root2) {
+            return false;
+        }
+        int rank1 = -pointers[root1] - 1;
+        int rank2 = -pointers[root2] - 1;
+        if (rank1 < rank2) {
+            pointers[root1] = root2;
+        } else {
+            if (rank1 == rank2) {
+                pointers[root1]--;
+            }
+            pointers[root2] = root1;
+        }
+        return true;
+    }
+
+    @Override
+    public void makeSet(Integer item) {
+        makeSet(item.intValue());
+    }
+
+    @Override
+    public int findSet(Integer item) {
+        return findSet(item.intValue());
+    }
+
+    @Override
+    public void union(Integer item1, Integer item2) {
+        union(item1.intValue(), item2.intValue());
+    }
+
+    private void checkPresent(int id) {
+        if (id < 0 || id >= pointers.length || pointers[id] == ABSENT) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    // Walks up to the root, then points every id on the way directly at it.
+    private int findRoot(int id) {
+        int root = id;
+        while (pointers[root] >= 0) {
+            root = pointers[root];
+        }
+        while (id != root) {
+            int parent = pointers[id];
+            pointers[id] = root;
+            id = parent;
+        }
+        return root;
+    }
+}
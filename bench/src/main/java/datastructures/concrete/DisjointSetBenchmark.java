@@ -0,0 +1,192 @@
+package datastructures.concrete;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks for makeSet, findSet and union throughput on ArrayDisjointSet,
+ * with IntDisjointSet alongside for comparison. The findSet and union methods work
+ * through OPERATIONS items, and are scored per item, so the results read as
+ * operations per second. makeSet builds a whole set of numItems items, and is scored
+ * by the time each build takes.
+ *
+ * Run main, or the JMH runner with "-prof gc", to see allocation rates as well.
+ * This file is built by bench/pom.xml, outside the project build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisjointSetBenchmark {
+    private static final long SEED = 373L;
+
+    // The number of makeSet, findSet or union calls in one benchmark invocation.
+    private static final int OPERATIONS = 1 << 16;
+
+    @Param({"1000", "100000", "10000000"})
+    public int numItems;
+
+    private Integer[] items;
+
+    // The pairs the union benchmarks merge, two ids per union. There are at least
+    // numItems of them, so an iteration keeps merging ever larger trees before it
+    // wraps around to pairs already in the same set.
+    private int[] pairs;
+    private int[] lookups;
+    private ArrayDisjointSet<Integer> merged;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(SEED);
+        items = new Integer[numItems];
+        for (int i = 0; i < numItems; i++) {
+            items[i] = i;
+        }
+        pairs = new int[2 * OPERATIONS * ((numItems + OPERATIONS - 1) / OPERATIONS)];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = random.nextInt(numItems);
+        }
+        lookups = new int[OPERATIONS];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = random.nextInt(numItems);
+        }
+
+        // A set whose items have been merged into a few large trees, for findSet.
+        merged = new ArrayDisjointSet<>(numItems);
+        for (Integer item : items) {
+            merged.makeSet(item);
+        }
+        for (int i = 1; i < numItems; i++) {
+            int other = random.nextInt(i);
+            if (merged.findSet(items[i]) != merged.findSet(items[other])) {
+                merged.union(items[i], items[other]);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ArrayDisjointSet<Integer> makeSet() {
+        ArrayDisjointSet<Integer> set = new ArrayDisjointSet<>();
+        for (Integer item : items) {
+            set.makeSet(item);
+        }
+        return set;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void findSet(Blackhole blackhole) {
+        for (int i = 0; i < OPERATIONS; i++) {
+            blackhole.consume(merged.findSet(items[lookups[i]]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public ArrayDisjointSet<Integer> union(ObjectSingletons singletons) {
+        ArrayDisjointSet<Integer> set = singletons.set;
+        int start = singletons.nextPairs(pairs.length);
+        for (int i = start; i < start + 2 * OPERATIONS; i += 2) {
+            Integer item1 = items[pairs[i]];
+            Integer item2 = items[pairs[i + 1]];
+            if (set.findSet(item1) != set.findSet(item2)) {
+                set.union(item1, item2);
+            }
+        }
+        return set;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public IntDisjointSet unionInt(IntSingletons singletons) {
+        IntDisjointSet set = singletons.set;
+        int start = singletons.nextPairs(pairs.length);
+        for (int i = start; i < start + 2 * OPERATIONS; i += 2) {
+            set.unionIfDisjoint(pairs[i], pairs[i + 1]);
+        }
+        return set;
+    }
+
+    /**
+     * An ArrayDisjointSet holding every item in a set of its own, for union. It is
+     * rebuilt before each iteration, and each invocation merges the next OPERATIONS
+     * pairs, wrapping around to the first. So an iteration measures a run of unions
+     * from singletons onwards, as Kruskal's algorithm makes them, and the rebuild
+     * happens once per iteration instead of once per invocation.
+     */
+    @State(Scope.Thread)
+    public static class ObjectSingletons {
+        private ArrayDisjointSet<Integer> set;
+        private int nextPair;
+
+        @Setup(Level.Iteration)
+        public void setUp(DisjointSetBenchmark benchmark) {
+            set = new ArrayDisjointSet<>(benchmark.numItems);
+            set.makeSets(Arrays.asList(benchmark.items));
+            nextPair = 0;
+        }
+
+        // Returns the index in pairs of the next invocation's first pair.
+        int nextPairs(int length) {
+            int start = nextPair;
+            nextPair = (start + 2 * OPERATIONS) % length;
+            return start;
+        }
+    }
+
+    /**
+     * The same as ObjectSingletons, but an IntDisjointSet, for unionInt.
+     */
+    @State(Scope.Thread)
+    public static class IntSingletons {
+        private IntDisjointSet set;
+        private int nextPair;
+
+        @Setup(Level.Iteration)
+        public void setUp(DisjointSetBenchmark benchmark) {
+            set = new IntDisjointSet(benchmark.numItems);
+            for (int i = 0; i < benchmark.numItems; i++) {
+                set.makeSet(i);
+            }
+            nextPair = 0;
+        }
+
+        // Returns the index in pairs of the next invocation's first pair.
+        int nextPairs(int length) {
+            int start = nextPair;
+            nextPair = (start + 2 * OPERATIONS) % length;
+            return start;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DisjointSetBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
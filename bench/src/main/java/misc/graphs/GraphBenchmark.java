@@ -0,0 +1,369 @@
+package misc.graphs;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks for building a Graph, single-pair shortest paths and minimum
+ * spanning trees, over seeded synthetic graphs of 10^3 to 10^7 edges.
+ *
+ * Run main, or the JMH runner with "-prof gc", to get throughput in ops/s along
+ * with the allocation rate of each benchmark. The same seed always produces the
+ * same graphs, so numbers from two builds can be compared directly.
+ *
+ * This file is built by bench/pom.xml, outside the project build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class GraphBenchmark {
+    private static final long SEED = 373L;
+
+    // The number of start/end pairs the shortest-path benchmark cycles through.
+    private static final int NUM_QUERIES = 1024;
+
+    @Param({"GRID", "GEOMETRIC", "ERDOS_RENYI", "POWER_LAW", "COMPLETE"})
+    public Shape shape;
+
+    @Param({"1000", "100000", "10000000"})
+    public int targetEdges;
+
+    private EdgeList generated;
+    private Graph<Integer, BenchmarkEdge> graph;
+    private int[] queryStarts;
+    private int[] queryEnds;
+    private int nextQuery;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        generated = shape.generate(targetEdges, new Random(SEED));
+        graph = build(generated);
+
+        // Pick query endpoints from the largest component so that most queries
+        // have an answer; the graph generators all yield one giant component.
+        Random random = new Random(SEED + 1);
+        Graph.Components<Integer, BenchmarkEdge> components = graph.connectedComponents();
+        int[] labels = components.labels();
+        int[] sizes = new int[components.count()];
+        for (int label : labels) {
+            sizes[label]++;
+        }
+        int giant = 0;
+        for (int label = 1; label < sizes.length; label++) {
+            if (sizes[label] > sizes[giant]) {
+                giant = label;
+            }
+        }
+        queryStarts = new int[NUM_QUERIES];
+        queryEnds = new int[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            queryStarts[i] = randomVertexIn(labels, giant, random);
+            queryEnds[i] = randomVertexIn(labels, giant, random);
+        }
+    }
+
+    @Benchmark
+    public Graph<Integer, BenchmarkEdge> construct() {
+        return build(generated);
+    }
+
+    @Benchmark
+    public Object shortestPath() {
+        int i = nextQuery;
+        nextQuery = (i + 1) % NUM_QUERIES;
+        return graph.findShortestPathBetween(queryStarts[i], queryEnds[i], Graph.SearchMode.DIJKSTRA);
+    }
+
+    @Benchmark
+    public Object shortestPathBidirectional() {
+        int i = nextQuery;
+        nextQuery = (i + 1) % NUM_QUERIES;
+        return graph.findShortestPathBetween(queryStarts[i], queryEnds[i], Graph.SearchMode.BIDIRECTIONAL);
+    }
+
+    @Benchmark
+    public Object minimumSpanningTreeKruskal() {
+        return graph.findMinimumSpanningTree(Graph.MstStrategy.KRUSKAL);
+    }
+
+    @Benchmark
+    public Object minimumSpanningTreePrim() {
+        return graph.findMinimumSpanningTree(Graph.MstStrategy.PRIM);
+    }
+
+    @Benchmark
+    public Object minimumSpanningTreeBoruvka() {
+        return graph.findMinimumSpanningTree(Graph.MstStrategy.BORUVKA);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(GraphBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    private static Graph<Integer, BenchmarkEdge> build(EdgeList edges) {
+        Graph.Builder<Integer, BenchmarkEdge> builder = Graph.builder(edges.numVertices, edges.size);
+        for (int vertex = 0; vertex < edges.numVertices; vertex++) {
+            builder.addVertex(vertex);
+        }
+        for (int i = 0; i < edges.size; i++) {
+            builder.addEdge(edges.edges[i]);
+        }
+        return builder.build();
+    }
+
+    private static int randomVertexIn(int[] labels, int label, Random random) {
+        while (true) {
+            int vertex = random.nextInt(labels.length);
+            if (labels[vertex] == label) {
+                return vertex;
+            }
+        }
+    }
+
+    /**
+     * The synthetic graph families. Each one picks its vertex count so that the
+     * graph has about the requested number of edges. Weights other than the
+     * geometric graph's are drawn uniformly from [1, 100).
+     */
+    public enum Shape {
+        /**
+         * A square grid with edges between horizontal and vertical neighbours, like a
+         * street map.
+         */
+        GRID {
+            @Override
+            EdgeList generate(int targetEdges, Random random) {
+                int side = Math.max((int) Math.sqrt(targetEdges / 2.0), 2);
+                EdgeList edges = new EdgeList(side * side, 2 * side * (side - 1));
+                for (int row = 0; row < side; row++) {
+                    for (int col = 0; col < side; col++) {
+                        int vertex = row * side + col;
+                        if (col + 1 < side) {
+                            edges.add(vertex, vertex + 1, randomWeight(random));
+                        }
+                        if (row + 1 < side) {
+                            edges.add(vertex, vertex + side, randomWeight(random));
+                        }
+                    }
+                }
+                return edges;
+            }
+        },
+
+        /**
+         * Points scattered over the unit square, joined when they are closer than a
+         * radius picked for an average degree of 8, weighted by their distance.
+         */
+        GEOMETRIC {
+            @Override
+            EdgeList generate(int targetEdges, Random random) {
+                int numVertices = Math.max(targetEdges / 4, 2);
+                double radius = Math.sqrt(8.0 / (Math.PI * numVertices));
+                double[] xs = new double[numVertices];
+                double[] ys = new double[numVertices];
+                for (int vertex = 0; vertex < numVertices; vertex++) {
+                    xs[vertex] = random.nextDouble();
+                    ys[vertex] = random.nextDouble();
+                }
+
+                // Bucket the points into cells one radius wide, so each point is only
+                // compared with the points in its own and neighbouring cells.
+                int cellsPerSide = Math.max((int) (1 / radius), 1);
+                int[] cellStarts = new int[cellsPerSide * cellsPerSide + 1];
+                int[] cellOf = new int[numVertices];
+                for (int vertex = 0; vertex < numVertices; vertex++) {
+                    int cellX = Math.min((int) (xs[vertex] * cellsPerSide), cellsPerSide - 1);
+                    int cellY = Math.min((int) (ys[vertex] * cellsPerSide), cellsPerSide - 1);
+                    cellOf[vertex] = cellY * cellsPerSide + cellX;
+                    cellStarts[cellOf[vertex] + 1]++;
+                }
+                for (int cell = 0; cell < cellsPerSide * cellsPerSide; cell++) {
+                    cellStarts[cell + 1] += cellStarts[cell];
+                }
+                int[] cellMembers = new int[numVertices];
+                int[] filled = new int[cellsPerSide * cellsPerSide];
+                for (int vertex = 0; vertex < numVertices; vertex++) {
+                    int cell = cellOf[vertex];
+                    cellMembers[cellStarts[cell] + filled[cell]] = vertex;
+                    filled[cell]++;
+                }
+
+                EdgeList edges = new EdgeList(numVertices, 4 * numVertices);
+                for (int vertex = 0; vertex < numVertices; vertex++) {
+                    int cellX = cellOf[vertex] % cellsPerSide;
+                    int cellY = cellOf[vertex] / cellsPerSide;
+                    for (int y = Math.max(cellY - 1, 0); y <= Math.min(cellY + 1, cellsPerSide - 1); y++) {
+                        for (int x = Math.max(cellX - 1, 0); x <= Math.min(cellX + 1, cellsPerSide - 1); x++) {
+                            int cell = y * cellsPerSide + x;
+                            for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+                                int other = cellMembers[k];
+                                if (other > vertex) {
+                                    double distance = Math.hypot(xs[vertex] - xs[other], ys[vertex] - ys[other]);
+                                    if (distance <= radius) {
+                                        edges.add(vertex, other, distance);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                return edges;
+            }
+        },
+
+        /**
+         * The Erdős–Rényi G(n, m) model: m edges between uniformly random pairs of
+         * vertices, with an average degree of 8.
+         */
+        ERDOS_RENYI {
+            @Override
+            EdgeList generate(int targetEdges, Random random) {
+                int numVertices = Math.max(targetEdges / 4, 2);
+                EdgeList edges = new EdgeList(numVertices, targetEdges);
+                for (int i = 0; i < targetEdges; i++) {
+                    edges.add(random.nextInt(numVertices), random.nextInt(numVertices), randomWeight(random));
+                }
+                return edges;
+            }
+        },
+
+        /**
+         * A Barabási–Albert graph: each new vertex links to 4 existing vertices picked
+         * with probability proportional to their degree, giving a power-law degree
+         * distribution with a few very large hubs.
+         */
+        POWER_LAW {
+            @Override
+            EdgeList generate(int targetEdges, Random random) {
+                int linksPerVertex = 4;
+                int numVertices = Math.max(targetEdges / linksPerVertex, linksPerVertex + 1);
+                EdgeList edges = new EdgeList(numVertices, linksPerVertex * numVertices);
+
+                // Every edge endpoint so far, so a uniform pick from this array picks a
+                // vertex with probability proportional to its degree.
+                int[] endpoints = new int[2 * linksPerVertex * numVertices];
+                int numEndpoints = 0;
+                for (int vertex = 1; vertex <= linksPerVertex; vertex++) {
+                    edges.add(0, vertex, randomWeight(random));
+                    endpoints[numEndpoints++] = 0;
+                    endpoints[numEndpoints++] = vertex;
+                }
+                for (int vertex = linksPerVertex + 1; vertex < numVertices; vertex++) {
+                    int existing = numEndpoints;
+                    for (int link = 0; link < linksPerVertex; link++) {
+                        int target = endpoints[random.nextInt(existing)];
+                        edges.add(vertex, target, randomWeight(random));
+                        endpoints[numEndpoints++] = vertex;
+                        endpoints[numEndpoints++] = target;
+                    }
+                }
+                return edges;
+            }
+        },
+
+        /**
+         * A complete graph on as many vertices as the edge budget allows.
+         */
+        COMPLETE {
+            @Override
+            EdgeList generate(int targetEdges, Random random) {
+                int numVertices = Math.max((int) ((1 + Math.sqrt(1 + 8.0 * targetEdges)) / 2), 2);
+                EdgeList edges = new EdgeList(numVertices, numVertices * (numVertices - 1) / 2);
+                for (int vertex = 0; vertex < numVertices; vertex++) {
+                    for (int other = vertex + 1; other < numVertices; other++) {
+                        edges.add(vertex, other, randomWeight(random));
+                    }
+                }
+                return edges;
+            }
+        };
+
+        abstract EdgeList generate(int targetEdges, Random random);
+
+        private static double randomWeight(Random random) {
+            return 1 + 99 * random.nextDouble();
+        }
+    }
+
+    /**
+     * A generated graph: its vertex count and its edges, created up front so that
+     * the construction benchmark measures only the Graph itself.
+     */
+    static class EdgeList {
+        private final int numVertices;
+        private BenchmarkEdge[] edges;
+        private int size;
+
+        EdgeList(int numVertices, int expectedEdges) {
+            this.numVertices = numVertices;
+            this.edges = new BenchmarkEdge[Math.max(expectedEdges, 1)];
+            this.size = 0;
+        }
+
+        void add(int vertex1, int vertex2, double weight) {
+            if (size == edges.length) {
+                edges = Arrays.copyOf(edges, 2 * size);
+            }
+            edges[size++] = new BenchmarkEdge(vertex1, vertex2, weight);
+        }
+    }
+
+    /**
+     * A plain weighted edge between two integer vertices.
+     */
+    public static class BenchmarkEdge implements Edge<Integer>, Comparable<BenchmarkEdge> {
+        private final Integer vertex1;
+        private final Integer vertex2;
+        private final double weight;
+
+        public BenchmarkEdge(int vertex1, int vertex2, double weight) {
+            this.vertex1 = vertex1;
+            this.vertex2 = vertex2;
+            this.weight = weight;
+        }
+
+        @Override
+        public Integer getVertex1() {
+            return vertex1;
+        }
+
+        @Override
+        public Integer getVertex2() {
+            return vertex2;
+        }
+
+        @Override
+        public double getWeight() {
+            return weight;
+        }
+
+        @Override
+        public int compareTo(BenchmarkEdge other) {
+            return Double.compare(weight, other.weight);
+        }
+    }
+}